@@ -0,0 +1,348 @@
+package com.colorspace.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import android.os.Debug;
+
+// Micro benchmark of the per pixel paths of this package.
+// Pixels should come from real images(e.g. res/drawable-nodpi/sample_*.jpg),
+// because branches in HSL and gamma depend on the color distribution.
+public class ColorBenchmark {
+    private static final String TAG = "ColorBenchmark";
+
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASURE_ITERATIONS = 5;
+
+    public static class Result {
+        public final String name;
+        // median of MEASURE_ITERATIONS
+        public final double nsPerPixel;
+        // allocated bytes per pixel in one iteration. counted only on android.
+        public final double bytesPerPixel;
+
+        Result(String name, double nsPerPixel, double bytesPerPixel) {
+            this.name = name;
+            this.nsPerPixel = nsPerPixel;
+            this.bytesPerPixel = bytesPerPixel;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-40s %8.2f ns/pixel %8.2f bytes/pixel", name, nsPerPixel, bytesPerPixel);
+        }
+    }
+
+    // a Precision tier of REPLACE_AB_IN_LAB against EXACT
+    public static class PrecisionResult {
+        public final Precision precision;
+        public final double nsPerPixel;
+        // CIEDE2000 between the results of this tier and of EXACT, over all pixels
+        public final float maxDeltaE;
+        public final float meanDeltaE;
+        // input color of maxDeltaE
+        public final int worstColor;
+
+        PrecisionResult(Precision precision, double nsPerPixel, float maxDeltaE, float meanDeltaE, int worstColor) {
+            this.precision = precision;
+            this.nsPerPixel = nsPerPixel;
+            this.maxDeltaE = maxDeltaE;
+            this.meanDeltaE = meanDeltaE;
+            this.worstColor = worstColor;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-6s %8.2f ns/pixel maxDeltaE2000 %.4f meanDeltaE2000 %.4f worstColor %08x",
+                    precision, nsPerPixel, maxDeltaE, meanDeltaE, worstColor);
+        }
+    }
+
+    private abstract static class Case {
+        final String name;
+
+        Case(String name) {
+            this.name = name;
+        }
+
+        // returns something derived from the result so that the work is not optimized away.
+        abstract int run(int[] pixels, int[] out);
+    }
+
+    // keeps results of cases alive.
+    private static volatile int sSink;
+
+    private final int[] pixels;
+    private final int replaceColor;
+
+    public ColorBenchmark(int[] pixels, int replaceColor) {
+        this.pixels = pixels;
+        this.replaceColor = replaceColor;
+    }
+
+    public List<Result> run() {
+        List<Result> results = new ArrayList<Result>();
+        int[] out = new int[pixels.length];
+        for (Case c : createCases()) {
+            Result r = measure(c, out);
+            android.util.Log.i(TAG, r.toString());
+            results.add(r);
+        }
+        return results;
+    }
+
+    // Speed and error of each Precision tier on the pixels. Only REPLACE_AB_IN_LAB uses pow and cbrt.
+    public List<PrecisionResult> runPrecision() {
+        final ColorConverter converter = ColorConverter.REPLACE_AB_IN_LAB;
+        final float[] replaceData = converter.getPrecomputedData(replaceColor);
+        int[] exact = new int[pixels.length];
+        converter.colorReplace(pixels, 0, exact, 0, pixels.length, replaceData, Precision.EXACT);
+
+        List<PrecisionResult> results = new ArrayList<PrecisionResult>();
+        int[] out = new int[pixels.length];
+        float[] exactLab = new float[3];
+        float[] lab = new float[3];
+        for (final Precision precision : Precision.values()) {
+            Result speed = measure(new Case(converter + "(" + precision + ")") {
+                @Override
+                int run(int[] pixels, int[] out) {
+                    converter.colorReplace(pixels, 0, out, 0, pixels.length, replaceData, precision);
+                    return out[out.length / 2];
+                }
+            }, out);
+            float maxDeltaE = 0f;
+            double sumDeltaE = 0.0;
+            int worstColor = 0;
+            for (int i = 0; i < pixels.length; i++) {
+                if (out[i] == exact[i]) {
+                    continue;
+                }
+                ColorConverter.getLabFromIntColor(exact[i], exactLab);
+                ColorConverter.getLabFromIntColor(out[i], lab);
+                float deltaE = ColorConverter.getDeltaE2000(exactLab, lab);
+                if (deltaE > maxDeltaE) {
+                    maxDeltaE = deltaE;
+                    worstColor = pixels[i];
+                }
+                sumDeltaE += deltaE;
+            }
+            PrecisionResult r = new PrecisionResult(precision, speed.nsPerPixel, maxDeltaE,
+                    (float) (sumDeltaE / pixels.length), worstColor);
+            android.util.Log.i(TAG, r.toString());
+            results.add(r);
+        }
+        return results;
+    }
+
+    // Runs bulk colorReplace of every mode over the pixels with allocation counting on,
+    // and returns false if any mode allocated during the loop. counted only on android.
+    public boolean testBulkAllocation() {
+        int[] dst = new int[pixels.length];
+        boolean ok = true;
+        for (ColorConverter converter : ColorConverter.values()) {
+            float[] replaceData = converter.getPrecomputedData(replaceColor);
+            // warm up so that class loading is not counted.
+            converter.colorReplace(pixels, 0, dst, 0, Math.min(pixels.length, 16), replaceData);
+
+            Debug.resetThreadAllocCount();
+            Debug.startAllocCounting();
+            converter.colorReplace(pixels, 0, dst, 0, pixels.length, replaceData);
+            Debug.stopAllocCounting();
+            int count = Debug.getThreadAllocCount();
+            // a few work arrays are allocated per call, not per pixel.
+            if (count > 4) {
+                ok = false;
+            }
+            android.util.Log.i(TAG, converter + " pixels=" + pixels.length + " allocations=" + count);
+        }
+        return ok;
+    }
+
+    private Result measure(Case c, int[] out) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            sSink += c.run(pixels, out);
+        }
+        long[] times = new long[MEASURE_ITERATIONS];
+        long allocatedBytes = 0;
+        for (int i = 0; i < MEASURE_ITERATIONS; i++) {
+            Debug.resetThreadAllocSize();
+            Debug.startAllocCounting();
+            long t1 = System.nanoTime();
+            sSink += c.run(pixels, out);
+            long t2 = System.nanoTime();
+            Debug.stopAllocCounting();
+            allocatedBytes += Debug.getThreadAllocSize();
+            times[i] = t2 - t1;
+        }
+        Arrays.sort(times);
+        return new Result(c.name, (double) times[MEASURE_ITERATIONS / 2] / pixels.length,
+                (double) allocatedBytes / MEASURE_ITERATIONS / pixels.length);
+    }
+
+    private List<Case> createCases() {
+        List<Case> cases = new ArrayList<Case>();
+        for (final ColorConverter converter : ColorConverter.values()) {
+            final float[] replaceData = converter.getPrecomputedData(replaceColor);
+            cases.add(new Case(converter + ".colorReplace") {
+                @Override
+                int run(int[] pixels, int[] out) {
+                    for (int i = 0; i < pixels.length; i++) {
+                        out[i] = converter.colorReplace(pixels[i], replaceData);
+                    }
+                    return out[out.length / 2];
+                }
+            });
+            cases.add(new Case(converter + ".colorReplace(bulk)") {
+                @Override
+                int run(int[] pixels, int[] out) {
+                    converter.colorReplace(pixels, 0, out, 0, pixels.length, replaceData);
+                    return out[out.length / 2];
+                }
+            });
+        }
+
+        cases.add(new Case("HSL.getHslFromColor") {
+            @Override
+            int run(int[] pixels, int[] out) {
+                float sum = 0f;
+                for (int i = 0; i < pixels.length; i++) {
+                    sum += HSL.getHslFromColor(pixels[i])[0];
+                }
+                return (int) sum;
+            }
+        });
+        final float[][] hsls = new float[pixels.length][];
+        for (int i = 0; i < pixels.length; i++) {
+            hsls[i] = HSL.getHslFromColor(pixels[i]);
+        }
+        cases.add(new Case("HSL.getColorFromHsl") {
+            @Override
+            int run(int[] pixels, int[] out) {
+                for (int i = 0; i < pixels.length; i++) {
+                    out[i] = HSL.getColorFromHsl(hsls[i]);
+                }
+                return out[out.length / 2];
+            }
+        });
+        cases.add(new Case("HSL.getLightness") {
+            @Override
+            int run(int[] pixels, int[] out) {
+                float sum = 0f;
+                for (int i = 0; i < pixels.length; i++) {
+                    sum += HSL.getLightness(pixels[i]);
+                }
+                return (int) sum;
+            }
+        });
+
+        final float[] red = new float[pixels.length];
+        final float[] green = new float[pixels.length];
+        final float[] blue = new float[pixels.length];
+        final float[] channelOut = new float[pixels.length];
+        for (int i = 0; i < pixels.length; i++) {
+            int p = pixels[i];
+            red[i] = ((p >> 16) & 0xff) / 255f;
+            green[i] = ((p >> 8) & 0xff) / 255f;
+            blue[i] = (p & 0xff) / 255f;
+        }
+        for (final RGBXYZMatrix matrix : RGBXYZMatrix.values()) {
+            cases.add(new Case(matrix.name() + ".applyMatrixFromLinearRGBToXYZ") {
+                @Override
+                int run(int[] pixels, int[] out) {
+                    float[] rgb = new float[3];
+                    float[] xyz = new float[3];
+                    float sum = 0f;
+                    for (int i = 0; i < pixels.length; i++) {
+                        rgb[0] = red[i];
+                        rgb[1] = green[i];
+                        rgb[2] = blue[i];
+                        matrix.applyMatrixFromLinearRGBToXYZ(rgb, xyz);
+                        sum += xyz[0];
+                    }
+                    return (int) sum;
+                }
+            });
+            cases.add(new Case(matrix.name() + ".applyMatrixYOnlyFromLinearRGBToXYZ") {
+                @Override
+                int run(int[] pixels, int[] out) {
+                    float[] rgb = new float[3];
+                    float[] xyz = new float[3];
+                    float sum = 0f;
+                    for (int i = 0; i < pixels.length; i++) {
+                        rgb[0] = red[i];
+                        rgb[1] = green[i];
+                        rgb[2] = blue[i];
+                        matrix.applyMatrixYOnlyFromLinearRGBToXYZ(rgb, xyz);
+                        sum += xyz[1];
+                    }
+                    return (int) sum;
+                }
+            });
+            cases.add(new Case(matrix.name() + ".applyMatrixFromXYZToLinearRGB") {
+                @Override
+                int run(int[] pixels, int[] out) {
+                    float[] rgb = new float[3];
+                    float[] xyz = new float[3];
+                    float sum = 0f;
+                    for (int i = 0; i < pixels.length; i++) {
+                        xyz[0] = red[i];
+                        xyz[1] = green[i];
+                        xyz[2] = blue[i];
+                        matrix.applyMatrixFromXYZToLinearRGB(xyz, rgb);
+                        sum += rgb[0];
+                    }
+                    return (int) sum;
+                }
+            });
+        }
+
+        for (final Precision precision : Precision.values()) {
+            cases.add(new Case("Precision." + precision + ".convertFromSRGBToLinearRGB") {
+                @Override
+                int run(int[] pixels, int[] out) {
+                    for (int i = 0; i < red.length; i++) {
+                        channelOut[i] = precision.convertFromSRGBToLinearRGB(red[i]);
+                    }
+                    return (int) channelOut[channelOut.length / 2];
+                }
+            });
+            cases.add(new Case("Precision." + precision + ".convertFromLinearRGBToSRGB") {
+                @Override
+                int run(int[] pixels, int[] out) {
+                    for (int i = 0; i < red.length; i++) {
+                        channelOut[i] = precision.convertFromLinearRGBToSRGB(red[i]);
+                    }
+                    return (int) channelOut[channelOut.length / 2];
+                }
+            });
+            cases.add(new Case("Precision." + precision + ".cbrt") {
+                @Override
+                int run(int[] pixels, int[] out) {
+                    for (int i = 0; i < red.length; i++) {
+                        channelOut[i] = precision.cbrt(red[i]);
+                    }
+                    return (int) channelOut[channelOut.length / 2];
+                }
+            });
+        }
+
+        for (final RGBGammaCorrection gamma : RGBGammaCorrection.values()) {
+            cases.add(new Case(gamma + ".convertFromSRGBToLinearRGB") {
+                @Override
+                int run(int[] pixels, int[] out) {
+                    gamma.convertFromSRGBToLinearRGB(red, 0, channelOut, 0, red.length);
+                    return (int) channelOut[channelOut.length / 2];
+                }
+            });
+            cases.add(new Case(gamma + ".convertFromLinearRGBToSRGB") {
+                @Override
+                int run(int[] pixels, int[] out) {
+                    gamma.convertFromLinearRGBToSRGB(red, 0, channelOut, 0, red.length);
+                    return (int) channelOut[channelOut.length / 2];
+                }
+            });
+        }
+        return cases;
+    }
+}
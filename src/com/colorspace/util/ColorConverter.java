@@ -18,6 +18,18 @@ public enum ColorConverter {
             return dstColor;
         }
 
+        @Override
+        public void colorReplace(int[] src, int srcOff, int[] dst, int dstOff, int len, float[] replaceData,
+                Precision precision) {
+            float[] hsv = new float[3];
+            for (int i = 0; i < len; i++) {
+                int color = src[srcOff + i];
+                Color.RGBToHSV(Color.red(color), Color.green(color), Color.blue(color), hsv);
+                hsv[0] = replaceData[0];
+                dst[dstOff + i] = Color.HSVToColor(hsv);
+            }
+        }
+
         private float[] getHsv(int color) {
             float[] hsv = new float[3];
             int red = Color.red(color);
@@ -42,6 +54,19 @@ public enum ColorConverter {
             hsl[3] = replaceData[3]; // for performance
             return HSL.getColorFromHsl(hsl);
         }
+
+        @Override
+        public void colorReplace(int[] src, int srcOff, int[] dst, int dstOff, int len, float[] replaceData,
+                Precision precision) {
+            float[] hsl = new float[4];
+            hsl[0] = replaceData[0];
+            hsl[1] = replaceData[1];
+            hsl[3] = replaceData[3];
+            for (int i = 0; i < len; i++) {
+                hsl[2] = HSL.getLightness(src[srcOff + i]);
+                dst[dstOff + i] = HSL.getColorFromHsl(hsl);
+            }
+        }
     },
     REPLACE_AB_IN_LAB {
         private final RGBGammaCorrection GAMMA_CORRECTION = RGBGammaCorrection.EXACT;
@@ -58,26 +83,41 @@ public enum ColorConverter {
             float[] xyz = new float[3];
             RGB_XYZ_MATRIX.applyMatrixFromLinearRGBToXYZ(rgb, xyz);
 
-            float fx = xyz2labFunc(xyz[0] / RGB_XYZ_MATRIX.whitePoint.x);
-            float fy = xyz2labFunc(xyz[1]);
-            float fz = xyz2labFunc(xyz[2] / RGB_XYZ_MATRIX.whitePoint.z);
+            float fx = xyz2labFunc(xyz[0] / RGB_XYZ_MATRIX.whitePoint.x, Precision.EXACT);
+            float fy = xyz2labFunc(xyz[1], Precision.EXACT);
+            float fz = xyz2labFunc(xyz[2] / RGB_XYZ_MATRIX.whitePoint.z, Precision.EXACT);
             return new float[] { fx - fy, fy - fz };
         }
 
         @Override
         public int colorReplace(int color, float[] replaceData) {
-            float[] rgb = getScaledRGBFromIntColor(color);
+            return colorReplace(color, replaceData, Precision.EXACT, new float[3], new float[3]);
+        }
+
+        @Override
+        public void colorReplace(int[] src, int srcOff, int[] dst, int dstOff, int len, float[] replaceData,
+                Precision precision) {
+            float[] rgb = new float[3];
+            float[] xyz = new float[3];
+            for (int i = 0; i < len; i++) {
+                dst[dstOff + i] = colorReplace(src[srcOff + i], replaceData, precision, rgb, xyz);
+            }
+        }
+
+        // rgb and xyz are work arrays, so nothing is allocated per pixel.
+        // precision is of the gamma curves and cbrt. GAMMA_CORRECTION is the curve of EXACT.
+        private int colorReplace(int color, float[] replaceData, Precision precision, float[] rgb, float[] xyz) {
+            getScaledRGBFromIntColor(color, rgb);
             // srgb -> linear rgb
-            rgb[0] = GAMMA_CORRECTION.convertFromSRGBToLinearRGB(rgb[0]);
-            rgb[1] = GAMMA_CORRECTION.convertFromSRGBToLinearRGB(rgb[1]);
-            rgb[2] = GAMMA_CORRECTION.convertFromSRGBToLinearRGB(rgb[2]);
+            rgb[0] = precision.convertFromSRGBToLinearRGB(rgb[0]);
+            rgb[1] = precision.convertFromSRGBToLinearRGB(rgb[1]);
+            rgb[2] = precision.convertFromSRGBToLinearRGB(rgb[2]);
 
             // linear rgb -> xyz
-            float[] xyz = new float[3];
             RGB_XYZ_MATRIX.applyMatrixYOnlyFromLinearRGBToXYZ(rgb, xyz);
 
             // replace x, z
-            float fy = xyz2labFunc(xyz[1]);
+            float fy = xyz2labFunc(xyz[1], precision);
             xyz[0] = RGB_XYZ_MATRIX.whitePoint.x * xyz2labInverseFunc(fy + replaceData[0]);
             xyz[2] = RGB_XYZ_MATRIX.whitePoint.z * xyz2labInverseFunc(fy - replaceData[1]);
 
@@ -85,9 +125,9 @@ public enum ColorConverter {
             RGB_XYZ_MATRIX.applyMatrixFromXYZToLinearRGB(xyz, rgb);
 
             // linear rgb -> srgb
-            rgb[0] = GAMMA_CORRECTION.convertFromLinearRGBToSRGB(rgb[0]);
-            rgb[1] = GAMMA_CORRECTION.convertFromLinearRGBToSRGB(rgb[1]);
-            rgb[2] = GAMMA_CORRECTION.convertFromLinearRGBToSRGB(rgb[2]);
+            rgb[0] = precision.convertFromLinearRGBToSRGB(rgb[0]);
+            rgb[1] = precision.convertFromLinearRGBToSRGB(rgb[1]);
+            rgb[2] = precision.convertFromLinearRGBToSRGB(rgb[2]);
 
             return getIntColorFromScaledRGB(rgb);
         }
@@ -129,31 +169,11 @@ public enum ColorConverter {
             return Color.rgb(r, g, b);
         }
 
-        private static final float XYZ_LAB_TRANSITION = 6f / 29f;
-        private static final float XYZ_LAB_CONSTANT1 = 29f * 29f / 6f / 6f / 3f;
-        private static final float XYZ_LAB_CONSTANT2 = 4f / 29f;
-
-        private float xyz2labFunc(float v) {
-            if (v > XYZ_LAB_TRANSITION * XYZ_LAB_TRANSITION * XYZ_LAB_TRANSITION) {
-                return (float) Math.cbrt(v);
-            } else {
-                return XYZ_LAB_CONSTANT1 * v + XYZ_LAB_CONSTANT2;
-            }
-        }
-
-        private float xyz2labInverseFunc(float v) {
-            if (v > XYZ_LAB_TRANSITION) {
-                return v * v * v;
-            } else {
-                return (v - XYZ_LAB_CONSTANT2) / XYZ_LAB_CONSTANT1;
-            }
-        }
-
         private void xyz2lab(float[] xyz, float[] lab) {
-            float fy = xyz2labFunc(xyz[1]);
+            float fy = xyz2labFunc(xyz[1], Precision.EXACT);
             lab[0] = 116f * fy - 16f;
-            lab[1] = 500f * (xyz2labFunc(xyz[0] / RGB_XYZ_MATRIX.whitePoint.x) - fy);
-            lab[2] = 200f * (fy - xyz2labFunc(xyz[2] / RGB_XYZ_MATRIX.whitePoint.z));
+            lab[1] = 500f * (xyz2labFunc(xyz[0] / RGB_XYZ_MATRIX.whitePoint.x, Precision.EXACT) - fy);
+            lab[2] = 200f * (fy - xyz2labFunc(xyz[2] / RGB_XYZ_MATRIX.whitePoint.z, Precision.EXACT));
         }
 
         private void lab2xyz(float[] lab, float[] xyz) {
@@ -216,8 +236,119 @@ public enum ColorConverter {
 
     public abstract int colorReplace(int color, float[] replaceData);
 
+    // Same as colorReplace(int, float[]) for len colors of src, but without allocation per pixel.
+    // src and dst may be the same array.
+    public void colorReplace(int[] src, int srcOff, int[] dst, int dstOff, int len, float[] replaceData) {
+        colorReplace(src, srcOff, dst, dstOff, len, replaceData, Precision.EXACT);
+    }
+
+    // with pow and cbrt of precision. HSV and HSL have neither, so they are the same in every tier.
+    public abstract void colorReplace(int[] src, int srcOff, int[] dst, int dstOff, int len, float[] replaceData,
+            Precision precision);
+
     private static final float RGB_MAX = 255f;
 
+    private static final float XYZ_LAB_TRANSITION = 6f / 29f;
+    private static final float XYZ_LAB_CONSTANT1 = 29f * 29f / 6f / 6f / 3f;
+    private static final float XYZ_LAB_CONSTANT2 = 4f / 29f;
+
+    private static float xyz2labFunc(float v, Precision precision) {
+        if (v > XYZ_LAB_TRANSITION * XYZ_LAB_TRANSITION * XYZ_LAB_TRANSITION) {
+            return precision.cbrt(v);
+        } else {
+            return XYZ_LAB_CONSTANT1 * v + XYZ_LAB_CONSTANT2;
+        }
+    }
+
+    private static float xyz2labInverseFunc(float v) {
+        if (v > XYZ_LAB_TRANSITION) {
+            return v * v * v;
+        } else {
+            return (v - XYZ_LAB_CONSTANT2) / XYZ_LAB_CONSTANT1;
+        }
+    }
+
+    // CIE Lab(D65) of sRGB color. used to measure color difference(delta E).
+    public static void getLabFromIntColor(int color, float[] lab) {
+        RGBXYZMatrix m = RGBXYZMatrix.SRGB;
+        float[] rgb = getScaledRGBFromIntColor(color);
+        rgb[0] = RGBGammaCorrection.EXACT.convertFromSRGBToLinearRGB(rgb[0]);
+        rgb[1] = RGBGammaCorrection.EXACT.convertFromSRGBToLinearRGB(rgb[1]);
+        rgb[2] = RGBGammaCorrection.EXACT.convertFromSRGBToLinearRGB(rgb[2]);
+        float[] xyz = new float[3];
+        m.applyMatrixFromLinearRGBToXYZ(rgb, xyz);
+        float fy = xyz2labFunc(xyz[1], Precision.EXACT);
+        lab[0] = 116f * fy - 16f;
+        lab[1] = 500f * (xyz2labFunc(xyz[0] / m.whitePoint.x, Precision.EXACT) - fy);
+        lab[2] = 200f * (fy - xyz2labFunc(xyz[2] / m.whitePoint.z, Precision.EXACT));
+    }
+
+    // CIEDE2000 color difference of 2 Labs, with kL = kC = kH = 1.
+    // http://www2.ece.rochester.edu/~gsharma/ciede2000/
+    public static float getDeltaE2000(float[] lab1, float[] lab2) {
+        double c1 = Math.sqrt(lab1[1] * lab1[1] + lab1[2] * lab1[2]);
+        double c2 = Math.sqrt(lab2[1] * lab2[1] + lab2[2] * lab2[2]);
+        double c7 = Math.pow((c1 + c2) / 2, 7);
+        double g = 0.5 * (1 - Math.sqrt(c7 / (c7 + POW_25_7)));
+        double a1 = lab1[1] * (1 + g);
+        double a2 = lab2[1] * (1 + g);
+        double cp1 = Math.sqrt(a1 * a1 + lab1[2] * lab1[2]);
+        double cp2 = Math.sqrt(a2 * a2 + lab2[2] * lab2[2]);
+        double hp1 = getHueDegrees(a1, lab1[2]);
+        double hp2 = getHueDegrees(a2, lab2[2]);
+
+        double dl = lab2[0] - lab1[0];
+        double dc = cp2 - cp1;
+        double dh = 0;
+        if (cp1 * cp2 != 0) {
+            dh = hp2 - hp1;
+            if (dh > 180) {
+                dh -= 360;
+            } else if (dh < -180) {
+                dh += 360;
+            }
+        }
+        double dH = 2 * Math.sqrt(cp1 * cp2) * Math.sin(Math.toRadians(dh / 2));
+
+        double lp = (lab1[0] + lab2[0]) / 2;
+        double cp = (cp1 + cp2) / 2;
+        double hp;
+        if (cp1 * cp2 == 0) {
+            hp = hp1 + hp2;
+        } else if (Math.abs(hp1 - hp2) <= 180) {
+            hp = (hp1 + hp2) / 2;
+        } else if (hp1 + hp2 < 360) {
+            hp = (hp1 + hp2 + 360) / 2;
+        } else {
+            hp = (hp1 + hp2 - 360) / 2;
+        }
+        double t = 1 - 0.17 * Math.cos(Math.toRadians(hp - 30)) + 0.24 * Math.cos(Math.toRadians(2 * hp))
+                + 0.32 * Math.cos(Math.toRadians(3 * hp + 6)) - 0.20 * Math.cos(Math.toRadians(4 * hp - 63));
+        double dTheta = 30 * Math.exp(-((hp - 275) / 25) * ((hp - 275) / 25));
+        double cp7 = Math.pow(cp, 7);
+        double rc = 2 * Math.sqrt(cp7 / (cp7 + POW_25_7));
+        double l50 = (lp - 50) * (lp - 50);
+        double sl = 1 + 0.015 * l50 / Math.sqrt(20 + l50);
+        double sc = 1 + 0.045 * cp;
+        double sh = 1 + 0.015 * cp * t;
+        double rt = -Math.sin(Math.toRadians(2 * dTheta)) * rc;
+        double l = dl / sl;
+        double c = dc / sc;
+        double h = dH / sh;
+        return (float) Math.sqrt(l * l + c * c + h * h + rt * c * h);
+    }
+
+    private static final double POW_25_7 = 6103515625.0;
+
+    // 0~360, 0 for gray
+    private static double getHueDegrees(double a, double b) {
+        if (a == 0 && b == 0) {
+            return 0;
+        }
+        double h = Math.toDegrees(Math.atan2(b, a));
+        return h < 0 ? h + 360 : h;
+    }
+
     public static int scaleRGB(float f) {
         if (f > 1f) {
             return 255;
@@ -229,10 +360,15 @@ public enum ColorConverter {
     }
 
     public static float[] getScaledRGBFromIntColor(int color) {
-        int r = Color.red(color);
-        int g = Color.green(color);
-        int b = Color.blue(color);
-        return new float[] { (float) r / RGB_MAX, (float) g / RGB_MAX, (float) b / RGB_MAX };
+        float[] rgb = new float[3];
+        getScaledRGBFromIntColor(color, rgb);
+        return rgb;
+    }
+
+    public static void getScaledRGBFromIntColor(int color, float[] rgb) {
+        rgb[0] = (float) Color.red(color) / RGB_MAX;
+        rgb[1] = (float) Color.green(color) / RGB_MAX;
+        rgb[2] = (float) Color.blue(color) / RGB_MAX;
     }
 
     private static final String TAG = "ColorConverter";
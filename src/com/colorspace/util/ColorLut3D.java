@@ -0,0 +1,210 @@
+package com.colorspace.util;
+
+import android.graphics.Color;
+
+// ColorConverter baked into a size x size x size rgb lattice.
+// Lookup is tetrahedral interpolation of 4 lattice points.
+// http://en.wikipedia.org/wiki/3D_lookup_table
+public class ColorLut3D {
+    public static final int DEFAULT_SIZE = 33;
+
+    private final int size;
+    // lattice rgb(0~255) of (r, g, b) index at ((r * size + g) * size + b) * 3
+    private final float[] lattice;
+
+    // Lattice points must be integer colors to be fed to ColorConverter,
+    // so they are rounded and not exactly equally spaced.
+    // For each 8-bit value, the lower lattice index and the fraction toward the upper one.
+    private final int[] latticeIndex = new int[256];
+    private final float[] latticeFraction = new float[256];
+
+    private ColorLut3D(int size) {
+        if (size < 2 || size > 256) {
+            throw new IllegalArgumentException("size must be 2~256 : " + size);
+        }
+        this.size = size;
+        lattice = new float[size * size * size * 3];
+
+        int[] position = new int[size];
+        for (int i = 0; i < size; i++) {
+            position[i] = Math.round(i * 255f / (size - 1));
+        }
+        int index = 0;
+        for (int v = 0; v < 256; v++) {
+            while (index < size - 2 && position[index + 1] <= v) {
+                index++;
+            }
+            latticeIndex[v] = index;
+            latticeFraction[v] = (float) (v - position[index]) / (position[index + 1] - position[index]);
+        }
+    }
+
+    public static ColorLut3D bake(ColorConverter converter, float[] replaceData, int size) {
+        ColorLut3D lut = new ColorLut3D(size);
+        int[] src = new int[size];
+        int[] dst = new int[size];
+        float[] lattice = lut.lattice;
+        int pos = 0;
+        for (int r = 0; r < size; r++) {
+            int red = Math.round(r * 255f / (size - 1));
+            for (int g = 0; g < size; g++) {
+                int green = Math.round(g * 255f / (size - 1));
+                // one row of blue at once
+                for (int b = 0; b < size; b++) {
+                    src[b] = Color.rgb(red, green, Math.round(b * 255f / (size - 1)));
+                }
+                converter.colorReplace(src, 0, dst, 0, size, replaceData);
+                for (int b = 0; b < size; b++) {
+                    lattice[pos++] = Color.red(dst[b]);
+                    lattice[pos++] = Color.green(dst[b]);
+                    lattice[pos++] = Color.blue(dst[b]);
+                }
+            }
+        }
+        return lut;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int colorReplace(int color) {
+        int ri = latticeIndex[Color.red(color)];
+        int gi = latticeIndex[Color.green(color)];
+        int bi = latticeIndex[Color.blue(color)];
+        float fr = latticeFraction[Color.red(color)];
+        float fg = latticeFraction[Color.green(color)];
+        float fb = latticeFraction[Color.blue(color)];
+
+        int s = size * 3;
+        int ss = size * s;
+        int c000 = ri * ss + gi * s + bi * 3;
+        int c111 = c000 + ss + s + 3;
+        // pick the tetrahedron containing (fr, fg, fb) by sorting the fractions.
+        // w0 ~ w3 are barycentric weights of c000, first, second, c111.
+        int first, second;
+        float w0, w1, w2, w3;
+        if (fr > fg) {
+            if (fg > fb) { // r > g > b
+                first = c000 + ss;
+                second = c000 + ss + s;
+                w0 = 1f - fr;
+                w1 = fr - fg;
+                w2 = fg - fb;
+                w3 = fb;
+            } else if (fr > fb) { // r > b >= g
+                first = c000 + ss;
+                second = c000 + ss + 3;
+                w0 = 1f - fr;
+                w1 = fr - fb;
+                w2 = fb - fg;
+                w3 = fg;
+            } else { // b >= r > g
+                first = c000 + 3;
+                second = c000 + ss + 3;
+                w0 = 1f - fb;
+                w1 = fb - fr;
+                w2 = fr - fg;
+                w3 = fg;
+            }
+        } else {
+            if (fb > fg) { // b > g >= r
+                first = c000 + 3;
+                second = c000 + s + 3;
+                w0 = 1f - fb;
+                w1 = fb - fg;
+                w2 = fg - fr;
+                w3 = fr;
+            } else if (fb > fr) { // g >= b > r
+                first = c000 + s;
+                second = c000 + s + 3;
+                w0 = 1f - fg;
+                w1 = fg - fb;
+                w2 = fb - fr;
+                w3 = fr;
+            } else { // g >= r >= b
+                first = c000 + s;
+                second = c000 + ss + s;
+                w0 = 1f - fg;
+                w1 = fg - fr;
+                w2 = fr - fb;
+                w3 = fb;
+            }
+        }
+        float[] l = lattice;
+        float r = w0 * l[c000] + w1 * l[first] + w2 * l[second] + w3 * l[c111];
+        float g = w0 * l[c000 + 1] + w1 * l[first + 1] + w2 * l[second + 1] + w3 * l[c111 + 1];
+        float b = w0 * l[c000 + 2] + w1 * l[first + 2] + w2 * l[second + 2] + w3 * l[c111 + 2];
+        return Color.rgb((int) (r + 0.5f), (int) (g + 0.5f), (int) (b + 0.5f));
+    }
+
+    // same as ColorConverter.colorReplace(int[], int, int[], int, int, float[])
+    public void colorReplace(int[] src, int srcOff, int[] dst, int dstOff, int len) {
+        for (int i = 0; i < len; i++) {
+            dst[dstOff + i] = colorReplace(src[srcOff + i]);
+        }
+    }
+
+    // Compares with the exact converter on a grid of every step-th value of each channel.
+    // step 1 checks all 2^24 colors.
+    public ErrorReport measureError(ColorConverter converter, float[] replaceData, int step) {
+        float[] exactLab = new float[3];
+        float[] lutLab = new float[3];
+        int[] src = new int[256];
+        int[] exact = new int[256];
+        float maxDeltaE = 0f;
+        double sumDeltaE = 0.0;
+        int count = 0;
+        int worstColor = 0;
+        for (int r = 0; r < 256; r += step) {
+            for (int g = 0; g < 256; g += step) {
+                int len = 0;
+                for (int b = 0; b < 256; b += step) {
+                    src[len++] = Color.rgb(r, g, b);
+                }
+                converter.colorReplace(src, 0, exact, 0, len, replaceData);
+                for (int i = 0; i < len; i++) {
+                    ColorConverter.getLabFromIntColor(exact[i], exactLab);
+                    ColorConverter.getLabFromIntColor(colorReplace(src[i]), lutLab);
+                    float deltaE = deltaE(exactLab, lutLab);
+                    if (deltaE > maxDeltaE) {
+                        maxDeltaE = deltaE;
+                        worstColor = src[i];
+                    }
+                    sumDeltaE += deltaE;
+                    count++;
+                }
+            }
+        }
+        return new ErrorReport(maxDeltaE, (float) (sumDeltaE / count), worstColor, count);
+    }
+
+    // CIE76
+    private static float deltaE(float[] lab1, float[] lab2) {
+        float dl = lab1[0] - lab2[0];
+        float da = lab1[1] - lab2[1];
+        float db = lab1[2] - lab2[2];
+        return (float) Math.sqrt(dl * dl + da * da + db * db);
+    }
+
+    public static class ErrorReport {
+        public final float maxDeltaE;
+        public final float meanDeltaE;
+        // input color of maxDeltaE
+        public final int worstColor;
+        public final int sampleCount;
+
+        ErrorReport(float maxDeltaE, float meanDeltaE, int worstColor, int sampleCount) {
+            this.maxDeltaE = maxDeltaE;
+            this.meanDeltaE = meanDeltaE;
+            this.worstColor = worstColor;
+            this.sampleCount = sampleCount;
+        }
+
+        @Override
+        public String toString() {
+            return "maxDeltaE=" + maxDeltaE + " meanDeltaE=" + meanDeltaE + " worstColor="
+                    + Integer.toHexString(worstColor) + " samples=" + sampleCount;
+        }
+    }
+}
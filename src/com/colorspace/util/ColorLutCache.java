@@ -0,0 +1,49 @@
+package com.colorspace.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// LRU cache of baked ColorLut3D keyed by (ColorConverter, replace color).
+// Baking a 33^3 lut costs about 36k exact conversions, so it pays off after ~36k pixels.
+public class ColorLutCache {
+    private final int lutSize;
+    private final LinkedHashMap<Long, ColorLut3D> luts;
+
+    public ColorLutCache(final int maxEntries, int lutSize) {
+        this.lutSize = lutSize;
+        // access order, so the eldest is the least recently used.
+        luts = new LinkedHashMap<Long, ColorLut3D>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, ColorLut3D> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public ColorLutCache(int maxEntries) {
+        this(maxEntries, ColorLut3D.DEFAULT_SIZE);
+    }
+
+    public synchronized ColorLut3D get(ColorConverter converter, int replaceColor) {
+        Long key = Long.valueOf(((long) converter.ordinal() << 32) | (replaceColor & 0xffffffffL));
+        ColorLut3D lut = luts.get(key);
+        if (lut == null) {
+            lut = ColorLut3D.bake(converter, converter.getPrecomputedData(replaceColor), lutSize);
+            luts.put(key, lut);
+        }
+        return lut;
+    }
+
+    public void colorReplace(ColorConverter converter, int replaceColor, int[] src, int srcOff, int[] dst,
+            int dstOff, int len) {
+        get(converter, replaceColor).colorReplace(src, srcOff, dst, dstOff, len);
+    }
+
+    public synchronized int size() {
+        return luts.size();
+    }
+
+    public synchronized void clear() {
+        luts.clear();
+    }
+}
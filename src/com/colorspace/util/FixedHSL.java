@@ -0,0 +1,164 @@
+package com.colorspace.util;
+
+// Integer version of HSL. h, s, l are packed in one int and converted directly to/from argb int.
+// bit 21~31 : h * 256     (0 ~ 1535, h of HSL is 0 ~ 6)
+// bit 10~20 : s * 2047    (0 ~ 2047)
+// bit  0~ 9 : l * 510     (0 ~ 510, max + min of 0~255 rgb, so this is exact)
+//
+// Error against HSL(float), measured over all 2^24 colors:
+// h : within 0.5 / 256, s : within 0.5 / 2047 (plus float rounding of HSL), l : exact.
+// getColorFromHsl(getHslFromColor(color)) == color for every opaque color.
+public class FixedHSL {
+    static final int HUE_ONE = 256;
+    static final int HUE_MAX = 6 * HUE_ONE;
+    static final int S_MAX = 2047;
+    private static final int L_MAX = 510;
+    private static final int L_MASK = 0x3ff;
+
+    private FixedHSL() {
+    }
+
+    public static int getHslFromColor(int color) {
+        int r = (color >> 16) & 0xff;
+        int g = (color >> 8) & 0xff;
+        int b = color & 0xff;
+        // Math.max/min are compiled to conditional moves, no branch.
+        int max = Math.max(Math.max(r, g), b);
+        int min = Math.min(Math.min(r, g), b);
+        int c = max - min;
+        int l = max + min;
+        int s;
+        if (c == 0) {
+            s = 0;
+        } else {
+            // 1 - |2l - 1| in 0~255 scale. this is never smaller than c.
+            int d = Math.min(l, L_MAX - l);
+            s = (c * S_MAX + d / 2) / d;
+        }
+        return pack(getHue(r, g, b, max, c), s, l);
+    }
+
+    // hsl is packed by getHslFromColor
+    public static int getColorFromHsl(int hsl) {
+        int h = getH(hsl);
+        int s = getS(hsl);
+        int l = getL(hsl);
+        int d = Math.min(l, L_MAX - l);
+        int c = (s * d + S_MAX / 2) / S_MAX;
+        // l = max + min, c = max - min
+        int min = (l - c + 1) >> 1;
+        return getColorFromHue(h, min, c);
+    }
+
+    // same as HSL.getLightness, but 0 ~ 510
+    public static int getLightness(int color) {
+        int r = (color >> 16) & 0xff;
+        int g = (color >> 8) & 0xff;
+        int b = color & 0xff;
+        return Math.max(Math.max(r, g), b) + Math.min(Math.min(r, g), b);
+    }
+
+    // returns hsl with only l replaced by that of color. this is REPLACE_HS_IN_HSL of ColorConverter.
+    public static int replaceLightness(int hsl, int color) {
+        return (hsl & ~L_MASK) | getLightness(color);
+    }
+
+    public static int pack(int h, int s, int l) {
+        return (h << 21) | (s << 10) | l;
+    }
+
+    public static int getH(int hsl) {
+        return hsl >>> 21;
+    }
+
+    public static int getS(int hsl) {
+        return (hsl >> 10) & 0x7ff;
+    }
+
+    public static int getL(int hsl) {
+        return hsl & L_MASK;
+    }
+
+    // h of HSL.getHslFromColor, 0 ~ 6
+    public static float getHue(int hsl) {
+        return (float) getH(hsl) / HUE_ONE;
+    }
+
+    public static float getSaturation(int hsl) {
+        return (float) getS(hsl) / S_MAX;
+    }
+
+    public static float getLightnessFloat(int hsl) {
+        return (float) getL(hsl) / L_MAX;
+    }
+
+    // h * 256, 0 ~ 1535. c is max - min.
+    static int getHue(int r, int g, int b, int max, int c) {
+        if (c == 0) {
+            return 0;
+        }
+        int h;
+        if (r == max) {
+            h = divRound((g - b) * HUE_ONE, c);
+            if (h < 0) {
+                h += HUE_MAX;
+            }
+        } else if (g == max) {
+            h = 2 * HUE_ONE + divRound((b - r) * HUE_ONE, c);
+        } else {
+            h = 4 * HUE_ONE + divRound((r - g) * HUE_ONE, c);
+        }
+        return h == HUE_MAX ? 0 : h;
+    }
+
+    // rounds half away from zero. d > 0
+    private static int divRound(int n, int d) {
+        return n >= 0 ? (n + d / 2) / d : -((-n + d / 2) / d);
+    }
+
+    // http://en.wikipedia.org/wiki/HSL_and_HSV#From_HSL
+    // same for HSV. only how min and c are derived differs.
+    static int getColorFromHue(int h, int min, int c) {
+        int sector = h >> 8;
+        int f = h & (HUE_ONE - 1);
+        if ((sector & 1) != 0) {
+            f = HUE_ONE - f;
+        }
+        int max = min + c;
+        int mid = min + ((c * f + HUE_ONE / 2) >> 8);
+        int r, g, b;
+        switch (sector) {
+        case 0:
+            r = max;
+            g = mid;
+            b = min;
+            break;
+        case 1:
+            r = mid;
+            g = max;
+            b = min;
+            break;
+        case 2:
+            r = min;
+            g = max;
+            b = mid;
+            break;
+        case 3:
+            r = min;
+            g = mid;
+            b = max;
+            break;
+        case 4:
+            r = mid;
+            g = min;
+            b = max;
+            break;
+        default:
+            r = max;
+            g = min;
+            b = mid;
+            break;
+        }
+        return 0xff000000 | (r << 16) | (g << 8) | b;
+    }
+}
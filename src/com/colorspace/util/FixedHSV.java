@@ -0,0 +1,54 @@
+package com.colorspace.util;
+
+// Integer version of HSV, packed like FixedHSL.
+// bit 21~31 : h * 256     (0 ~ 1535, h is 0 ~ 6. android.graphics.Color uses 0 ~ 360)
+// bit 10~20 : s * 2047    (0 ~ 2047)
+// bit  0~ 9 : v * 255     (0 ~ 255, max of rgb, so this is exact)
+//
+// Error against Color.RGBToHSV, measured over all 2^24 colors:
+// h : within 0.5 / 256 (0.12 degree), s : within 0.5 / 2047 (plus float rounding), v : exact.
+// getColorFromHsv(getHsvFromColor(color)) == color for every opaque color.
+public class FixedHSV {
+    private static final int V_MASK = 0x3ff;
+
+    private FixedHSV() {
+    }
+
+    public static int getHsvFromColor(int color) {
+        int r = (color >> 16) & 0xff;
+        int g = (color >> 8) & 0xff;
+        int b = color & 0xff;
+        int max = Math.max(Math.max(r, g), b);
+        int min = Math.min(Math.min(r, g), b);
+        int c = max - min;
+        int s = c == 0 ? 0 : (c * FixedHSL.S_MAX + max / 2) / max;
+        return FixedHSL.pack(FixedHSL.getHue(r, g, b, max, c), s, max);
+    }
+
+    public static int getColorFromHsv(int hsv) {
+        int h = FixedHSL.getH(hsv);
+        int s = FixedHSL.getS(hsv);
+        int v = hsv & V_MASK;
+        int c = (s * v + FixedHSL.S_MAX / 2) / FixedHSL.S_MAX;
+        return FixedHSL.getColorFromHue(h, v - c, c);
+    }
+
+    // returns color with h replaced. this is REPLACE_H_IN_HSV of ColorConverter.
+    public static int replaceHue(int color, int h) {
+        int hsv = getHsvFromColor(color);
+        return getColorFromHsv((hsv & 0x1fffff) | (h << 21));
+    }
+
+    // h * 256, 0 ~ 1535
+    public static int getH(int hsv) {
+        return FixedHSL.getH(hsv);
+    }
+
+    public static int getS(int hsv) {
+        return FixedHSL.getS(hsv);
+    }
+
+    public static int getV(int hsv) {
+        return hsv & V_MASK;
+    }
+}
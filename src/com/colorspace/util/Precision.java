@@ -0,0 +1,126 @@
+package com.colorspace.util;
+
+// How pow and cbrt of the color pipeline are computed. Chosen per call, e.g. by
+// ColorConverter.colorReplace(int[], int, int[], int, int, float[], Precision).
+// - EXACT : powf and Math.cbrt. The reference, same results as before tiers.
+// - FAST : pow as exp2(y * log2(x)) by 5th order polynomials(relative error about 3e-5 for the srgb gamma),
+//   cbrt by an estimate from the exponent bits and 2 newton steps.
+// - APPROX : 3rd order polynomials(about 2e-3) and 1 newton step.
+// The inverse of the lab function is a cube, which is exact and cheap already, so every tier shares it.
+// ColorBenchmark.runPrecision reports delta E 2000 and ns/pixel of each tier.
+public enum Precision {
+    EXACT {
+        @Override
+        public float pow(float x, float y) {
+            return RGBGammaCorrection.powf(x, y);
+        }
+
+        @Override
+        public float cbrt(float v) {
+            return (float) Math.cbrt(v);
+        }
+
+        @Override
+        public float convertFromSRGBToLinearRGB(float v) {
+            return RGBGammaCorrection.EXACT.convertFromSRGBToLinearRGB(v);
+        }
+
+        @Override
+        public float convertFromLinearRGBToSRGB(float v) {
+            return RGBGammaCorrection.EXACT.convertFromLinearRGBToSRGB(v);
+        }
+    },
+    FAST {
+        @Override
+        public float pow(float x, float y) {
+            if (x <= 0f) {
+                return 0f;
+            }
+            // log2 of mantissa 1 + t is t + t(t - 1)q(t), exact at t = 0 and 1 so that octaves join.
+            int bits = Float.floatToRawIntBits(x);
+            float t = Float.intBitsToFloat((bits & 0x007fffff) | 0x3f800000) - 1f;
+            float log2 = ((bits >> 23) & 0xff) - 127
+                    + t + t * (t - 1f) * (-0.44191638f + t * (0.26717408f + t * (-0.14841487f + t * 0.045141428f)));
+            float v = clampExponent(y * log2);
+            int i = floor(v);
+            t = v - i;
+            return scaleByPowerOf2(1f + t + t * (t - 1f) * (0.30684826f + t * (0.066688987f
+                    + t * (0.010870326f + t * 0.0018793068f))), i);
+        }
+
+        @Override
+        public float cbrt(float v) {
+            float y = estimateCbrt(v);
+            y = (2f * y + v / (y * y)) * (1f / 3f);
+            return (2f * y + v / (y * y)) * (1f / 3f);
+        }
+    },
+    APPROX {
+        @Override
+        public float pow(float x, float y) {
+            if (x <= 0f) {
+                return 0f;
+            }
+            int bits = Float.floatToRawIntBits(x);
+            float t = Float.intBitsToFloat((bits & 0x007fffff) | 0x3f800000) - 1f;
+            float log2 = ((bits >> 23) & 0xff) - 127 + t + t * (t - 1f) * (-0.42285473f + t * 0.15920045f);
+            float v = clampExponent(y * log2);
+            int i = floor(v);
+            t = v - i;
+            return scaleByPowerOf2(1f + t + t * (t - 1f) * (0.30457586f + t * 0.078267096f), i);
+        }
+
+        @Override
+        public float cbrt(float v) {
+            float y = estimateCbrt(v);
+            return (2f * y + v / (y * y)) * (1f / 3f);
+        }
+    };
+
+    // same curve as RGBGammaCorrection.EXACT
+    private static final float GAMMA = 2.4f;
+    private static final float TRANSITION = 0.04045f;
+    private static final float OFFSET = 0.055f;
+    private static final float SLOPE = 12.92f;
+
+    // x is positive and not denormal.
+    public abstract float pow(float x, float y);
+
+    // v is not negative.
+    public abstract float cbrt(float v);
+
+    public float convertFromSRGBToLinearRGB(float v) {
+        if (v > TRANSITION) {
+            return pow((v + OFFSET) / (1f + OFFSET), GAMMA);
+        } else {
+            return v / SLOPE;
+        }
+    }
+
+    public float convertFromLinearRGBToSRGB(float v) {
+        if (v > TRANSITION / SLOPE) {
+            return (1f + OFFSET) * pow(v, 1f / GAMMA) - OFFSET;
+        } else {
+            return v * SLOPE;
+        }
+    }
+
+    // dividing the biased exponent by 3 gives cbrt within about 3%. a newton step squares the error.
+    private static float estimateCbrt(float v) {
+        return Float.intBitsToFloat(Float.floatToRawIntBits(v) / 3 + 0x2a5137a0);
+    }
+
+    // exponents of normal floats
+    private static float clampExponent(float v) {
+        return v < -126f ? -126f : v > 127f ? 127f : v;
+    }
+
+    private static int floor(float v) {
+        int i = (int) v;
+        return i > v ? i - 1 : i;
+    }
+
+    private static float scaleByPowerOf2(float v, int exponent) {
+        return v * Float.intBitsToFloat((exponent + 127) << 23);
+    }
+}
@@ -42,13 +42,99 @@ public enum RGBGammaCorrection {
         protected float convertFromLinearRGBToSRGB(float v) {
             return powf(v, 1f / GAMMA);
         }
+    },
+    // Same curve as EXACT, but from tables instead of powf.
+    // 8-bit srgb values are exact, others are linearly interpolated.
+    LUT {
+        @Override
+        protected float convertFromSRGBToLinearRGB(float v) {
+            return interpolate(SRGB_TO_LINEAR, v);
+        }
+
+        @Override
+        protected float convertFromLinearRGBToSRGB(float v) {
+            return interpolate(LINEAR_TO_SRGB, v);
+        }
     };
 
     abstract float convertFromSRGBToLinearRGB(float v);
 
     abstract float convertFromLinearRGBToSRGB(float v);
 
-    private static float powf(float x, float y) {
+    public void convertFromSRGBToLinearRGB(float[] src, int srcOff, float[] dst, int dstOff, int len) {
+        for (int i = 0; i < len; i++) {
+            dst[dstOff + i] = convertFromSRGBToLinearRGB(src[srcOff + i]);
+        }
+    }
+
+    public void convertFromLinearRGBToSRGB(float[] src, int srcOff, float[] dst, int dstOff, int len) {
+        for (int i = 0; i < len; i++) {
+            dst[dstOff + i] = convertFromLinearRGBToSRGB(src[srcOff + i]);
+        }
+    }
+
+    // srgb 0~255 -> linear rgb 0~1 of EXACT curve, computed in double.
+    public static float convertFromSRGB8ToLinearRGB(int v) {
+        return SRGB_TO_LINEAR[v];
+    }
+
+    // linear rgb 0~1 -> srgb 0~255, rounded.
+    // convertFromLinearRGBToSRGB8(convertFromSRGB8ToLinearRGB(v)) == v for all 0~255.
+    public static int convertFromLinearRGBToSRGB8(float v) {
+        if (v <= 0f) {
+            return 0;
+        } else if (v >= 1f) {
+            return 255;
+        }
+        return LINEAR_TO_SRGB8[(int) (v * (LINEAR_TO_SRGB_SIZE - 1) + 0.5f)] & 0xff;
+    }
+
+    // 4096 steps keep adjacent 8-bit values in different entries even in the linear segment,
+    // where 1/255 of srgb is 1.24 entries.
+    private static final int LINEAR_TO_SRGB_SIZE = 4096;
+
+    private static final float[] SRGB_TO_LINEAR = new float[256];
+    private static final float[] LINEAR_TO_SRGB = new float[LINEAR_TO_SRGB_SIZE];
+    private static final byte[] LINEAR_TO_SRGB8 = new byte[LINEAR_TO_SRGB_SIZE];
+
+    static {
+        for (int i = 0; i < SRGB_TO_LINEAR.length; i++) {
+            double v = i / 255.0;
+            if (v > 0.04045) {
+                SRGB_TO_LINEAR[i] = (float) Math.pow((v + 0.055) / 1.055, 2.4);
+            } else {
+                SRGB_TO_LINEAR[i] = (float) (v / 12.92);
+            }
+        }
+        for (int i = 0; i < LINEAR_TO_SRGB_SIZE; i++) {
+            double v = (double) i / (LINEAR_TO_SRGB_SIZE - 1);
+            double srgb;
+            if (v > 0.04045 / 12.92) {
+                srgb = 1.055 * Math.pow(v, 1.0 / 2.4) - 0.055;
+            } else {
+                srgb = v * 12.92;
+            }
+            LINEAR_TO_SRGB[i] = (float) srgb;
+            LINEAR_TO_SRGB8[i] = (byte) (int) (srgb * 255.0 + 0.5);
+        }
+    }
+
+    // table covers 0~1 with equal steps. out of range is clamped.
+    private static float interpolate(float[] table, float v) {
+        if (v <= 0f) {
+            return table[0];
+        }
+        int last = table.length - 1;
+        float pos = v * last;
+        int i = (int) pos;
+        if (i >= last) {
+            return table[last];
+        }
+        float f = pos - i;
+        return table[i] + (table[i + 1] - table[i]) * f;
+    }
+
+    static float powf(float x, float y) {
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR1) {
             return (float) Math.pow(x, y);
         } else {
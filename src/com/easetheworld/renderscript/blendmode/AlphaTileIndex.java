@@ -0,0 +1,115 @@
+package com.easetheworld.renderscript.blendmode;
+
+// Min and max alpha of each tile of the drawing mask.
+// root() in filter.rs reads the drawing for every pixel and branches on its alpha, but a brush mask
+// is mostly empty or fully opaque. With this index a tile is handled as a whole:
+// - EMPTY(max 0) : out is the blending, nothing else is read.
+// - OPAQUE(min 255) : out is the filter, no mix with the blending.
+// - PARTIAL : every pixel as root().
+// update must be called for the rect of drawing which changed.
+public class AlphaTileIndex {
+    public static final int EMPTY = 0;
+    public static final int OPAQUE = 1;
+    public static final int PARTIAL = 2;
+
+    private final int width;
+    private final int height;
+    private final int tileSize;
+    private final int columns;
+    private final int rows;
+    // per tile, same order as TileCompositor
+    private final byte[] states;
+    private final short[] minAlpha;
+    private final short[] maxAlpha;
+
+    public AlphaTileIndex(int width, int height, int tileSize) {
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        columns = (width + tileSize - 1) / tileSize;
+        rows = (height + tileSize - 1) / tileSize;
+        states = new byte[columns * rows];
+        minAlpha = new short[columns * rows];
+        maxAlpha = new short[columns * rows];
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    // Recomputes tiles which overlap the rect from drawing(width * height pixels).
+    public void update(int[] drawing, int left, int top, int right, int bottom) {
+        left = Math.max(left, 0);
+        top = Math.max(top, 0);
+        right = Math.min(right, width);
+        bottom = Math.min(bottom, height);
+        if (left >= right || top >= bottom) {
+            return;
+        }
+        updateTileRows(drawing, top / tileSize, (bottom - 1) / tileSize + 1, left / tileSize,
+                (right - 1) / tileSize + 1);
+    }
+
+    // tile rows [rowTop, rowBottom) and tile columns [columnLeft, columnRight)
+    void updateTileRows(int[] drawing, int rowTop, int rowBottom, int columnLeft, int columnRight) {
+        for (int r = rowTop; r < rowBottom; r++) {
+            int y0 = r * tileSize;
+            int y1 = Math.min(y0 + tileSize, height);
+            for (int c = columnLeft; c < columnRight; c++) {
+                int x0 = c * tileSize;
+                int x1 = Math.min(x0 + tileSize, width);
+                int min = 255;
+                int max = 0;
+                for (int y = y0; y < y1; y++) {
+                    int p = y * width;
+                    for (int x = x0; x < x1; x++) {
+                        int a = drawing[p + x] >>> 24;
+                        min = Math.min(min, a);
+                        max = Math.max(max, a);
+                    }
+                }
+                int i = r * columns + c;
+                minAlpha[i] = (short) min;
+                maxAlpha[i] = (short) max;
+                states[i] = (byte) (max == 0 ? EMPTY : (min == 255 ? OPAQUE : PARTIAL));
+            }
+        }
+    }
+
+    public int getState(int column, int row) {
+        return states[row * columns + column];
+    }
+
+    // state of the tile containing pixel (x, y)
+    public int getStateAt(int x, int y) {
+        return states[(y / tileSize) * columns + x / tileSize];
+    }
+
+    public int getMinAlpha(int column, int row) {
+        return minAlpha[row * columns + column];
+    }
+
+    public int getMaxAlpha(int column, int row) {
+        return maxAlpha[row * columns + column];
+    }
+
+    // end(exclusive) of the run of tiles with the same state as pixel (x, y) in its row, up to right.
+    int getRunEnd(int x, int y, int right) {
+        int row = (y / tileSize) * columns;
+        int c = x / tileSize;
+        int state = states[row + c];
+        int last = (right - 1) / tileSize;
+        while (c < last && states[row + c + 1] == state) {
+            c++;
+        }
+        return Math.min((c + 1) * tileSize, right);
+    }
+}
@@ -0,0 +1,303 @@
+package com.easetheworld.renderscript.blendmode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// decode -> filter -> encode of many files, as stages connected by bounded queues.
+// - decode and encode are blocking file io, so each has its own threads and io overlaps filtering.
+// - filter is one thread, since BatchPreset runs each image on all cores through TileScheduler.
+// - queues hold at most queueCapacity images each, so memory is bounded and a slow stage
+//   blocks the stage before it instead of images piling up.
+// A file which fails is reported in Result and the rest go on.
+public class BatchPipeline {
+
+    public static class StageStats {
+        public final String name;
+        public final int threads;
+        public final long items;
+        // time in the stage's work, summed over its threads. waiting on queues is not counted.
+        public final long busyNanos;
+        public final long bytes;
+        private final long wallNanos;
+
+        StageStats(String name, int threads, long items, long busyNanos, long bytes, long wallNanos) {
+            this.name = name;
+            this.threads = threads;
+            this.items = items;
+            this.busyNanos = busyNanos;
+            this.bytes = bytes;
+            this.wallNanos = wallNanos;
+        }
+
+        // busy ratio of the stage's threads. the stage near 100% is the bottleneck.
+        public double getUtilization() {
+            return wallNanos == 0 ? 0 : (double) busyNanos / wallNanos / threads;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = wallNanos / 1e9;
+            return String.format(Locale.US, "%-6s threads %d items %d %.1f/s %.1fMB/s busy %.0f%% %.1fms/item",
+                    name, threads, items, seconds == 0 ? 0 : items / seconds,
+                    seconds == 0 ? 0 : bytes / seconds / (1 << 20), getUtilization() * 100,
+                    items == 0 ? 0 : busyNanos / 1e6 / items);
+        }
+    }
+
+    public static class Result {
+        public final int succeeded;
+        // file : message
+        public final Map<File, String> failures;
+        public final long wallNanos;
+        public final List<StageStats> stages;
+
+        Result(int succeeded, Map<File, String> failures, long wallNanos, List<StageStats> stages) {
+            this.succeeded = succeeded;
+            this.failures = failures;
+            this.wallNanos = wallNanos;
+            this.stages = stages;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(String.format(Locale.US, "%d images in %.2fs, %d failed\n",
+                    succeeded, wallNanos / 1e9, failures.size()));
+            for (StageStats s : stages) {
+                sb.append(s).append('\n');
+            }
+            return sb.toString();
+        }
+    }
+
+    private static class Item {
+        final File input;
+        final File output;
+        ImageCodec.Image image;
+
+        Item(File input, File output) {
+            this.input = input;
+            this.output = output;
+        }
+    }
+
+    // the end of a queue. one per thread of the stage which takes.
+    private static final Item END = new Item(null, null);
+
+    private static class Counter {
+        final AtomicLong items = new AtomicLong();
+        final AtomicLong busyNanos = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+
+        void add(long nanos, long bytes) {
+            items.incrementAndGet();
+            busyNanos.addAndGet(nanos);
+            this.bytes.addAndGet(bytes);
+        }
+    }
+
+    private final ImageCodec codec;
+    private final BatchPreset preset;
+    private final TileScheduler scheduler;
+    private final int decodeThreads;
+    private final int encodeThreads;
+    private final int queueCapacity;
+
+    public BatchPipeline(ImageCodec codec, BatchPreset preset, TileScheduler scheduler, int decodeThreads,
+            int encodeThreads, int queueCapacity) {
+        this.codec = codec;
+        this.preset = preset;
+        this.scheduler = scheduler;
+        this.decodeThreads = Math.max(1, decodeThreads);
+        this.encodeThreads = Math.max(1, encodeThreads);
+        this.queueCapacity = Math.max(1, queueCapacity);
+    }
+
+    // Files of dir the codec accepts, by name.
+    public List<File> listInputs(File dir) {
+        List<File> inputs = new ArrayList<File>();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.isFile() && codec.accepts(f)) {
+                    inputs.add(f);
+                }
+            }
+        }
+        Collections.sort(inputs);
+        return inputs;
+    }
+
+    // Output of each input is outputDir/name.extension of codec. Blocks until all are done.
+    public Result run(List<File> inputs, File outputDir) {
+        final List<Item> items = new ArrayList<Item>(inputs.size());
+        for (File input : inputs) {
+            String name = input.getName();
+            int dot = name.lastIndexOf('.');
+            if (dot > 0) {
+                name = name.substring(0, dot);
+            }
+            items.add(new Item(input, new File(outputDir, name + "." + codec.getExtension())));
+        }
+        final BlockingQueue<Item> decoded = new ArrayBlockingQueue<Item>(queueCapacity);
+        final BlockingQueue<Item> filtered = new ArrayBlockingQueue<Item>(queueCapacity);
+        final Map<File, String> failures = Collections.synchronizedMap(new HashMap<File, String>());
+        final Counter decodeCounter = new Counter();
+        final Counter filterCounter = new Counter();
+        final Counter encodeCounter = new Counter();
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger decoders = new AtomicInteger(decodeThreads);
+        final CountDownLatch encodersDone = new CountDownLatch(encodeThreads);
+
+        long start = System.nanoTime();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < decodeThreads; t++) {
+            threads.add(new Thread("BatchDecode-" + t) {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = next.getAndIncrement(); i < items.size(); i = next.getAndIncrement()) {
+                            Item item = items.get(i);
+                            long t1 = System.nanoTime();
+                            try {
+                                InputStream in = new BufferedInputStream(new FileInputStream(item.input));
+                                try {
+                                    item.image = codec.decode(in);
+                                } finally {
+                                    in.close();
+                                }
+                            } catch (Throwable e) {
+                                // e.g. OutOfMemoryError of a huge image fails only that image.
+                                failures.put(item.input, "decode : " + e);
+                                continue;
+                            }
+                            decodeCounter.add(System.nanoTime() - t1, item.input.length());
+                            put(decoded, item);
+                        }
+                    } finally {
+                        // the last decoder, so that END is behind every image.
+                        if (decoders.decrementAndGet() == 0) {
+                            put(decoded, END);
+                        }
+                    }
+                }
+            });
+        }
+        for (int t = 0; t < encodeThreads; t++) {
+            threads.add(new Thread("BatchEncode-" + t) {
+                @Override
+                public void run() {
+                    try {
+                        for (Item item = take(filtered); item != END; item = take(filtered)) {
+                            long t1 = System.nanoTime();
+                            try {
+                                OutputStream out = new BufferedOutputStream(new FileOutputStream(item.output));
+                                try {
+                                    codec.encode(item.image, out);
+                                } finally {
+                                    out.close();
+                                }
+                            } catch (Throwable e) {
+                                failures.put(item.input, "encode : " + e);
+                                continue;
+                            } finally {
+                                // items are kept till the end, images must not be.
+                                item.image = null;
+                            }
+                            encodeCounter.add(System.nanoTime() - t1, item.output.length());
+                        }
+                    } finally {
+                        encodersDone.countDown();
+                    }
+                }
+            });
+        }
+        for (Thread t : threads) {
+            t.setDaemon(true);
+            t.start();
+        }
+        // filter on this thread. photos of a batch are mostly of one size, so the script is kept while
+        // the size is the same.
+        // END is put even if this fails, or the encoders would wait forever.
+        try {
+            CpuFilterScript script = null;
+            for (Item item = take(decoded); item != END; item = take(decoded)) {
+                long t1 = System.nanoTime();
+                try {
+                    ImageCodec.Image image = item.image;
+                    if (script == null || script.getWidth() != image.width || script.getHeight() != image.height) {
+                        script = null; // for gc before the next one
+                        script = new CpuFilterScript(image.pixels, image.width, image.height, scheduler);
+                    }
+                    preset.apply(script, image.pixels);
+                } catch (Throwable e) {
+                    // e.g. OutOfMemoryError. the script may be half done, and its buffers are better freed.
+                    failures.put(item.input, "filter : " + e);
+                    item.image = null;
+                    script = null;
+                    continue;
+                }
+                filterCounter.add(System.nanoTime() - t1, item.image.width * item.image.height * 4L);
+                put(filtered, item);
+            }
+        } finally {
+            for (int t = 0; t < encodeThreads; t++) {
+                put(filtered, END);
+            }
+        }
+        await(encodersDone);
+        long wall = System.nanoTime() - start;
+
+        List<StageStats> stages = new ArrayList<StageStats>();
+        stages.add(getStats("decode", decodeThreads, decodeCounter, wall));
+        stages.add(getStats("filter", 1, filterCounter, wall));
+        stages.add(getStats("encode", encodeThreads, encodeCounter, wall));
+        return new Result((int) encodeCounter.items.get(), new HashMap<File, String>(failures), wall, stages);
+    }
+
+    private static StageStats getStats(String name, int threads, Counter c, long wall) {
+        return new StageStats(name, threads, c.items.get(), c.busyNanos.get(), c.bytes.get(), wall);
+    }
+
+    private static void put(BlockingQueue<Item> queue, Item item) {
+        try {
+            queue.put(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted in batch", e);
+        }
+    }
+
+    private static Item take(BlockingQueue<Item> queue) {
+        try {
+            return queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted in batch", e);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted in batch", e);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.easetheworld.renderscript.blendmode;
+
+import java.util.Locale;
+
+import com.colorspace.util.ColorConverter;
+import com.colorspace.util.Precision;
+import com.easetheworld.renderscript.blendmode.FilterScript.FilterType;
+
+// What BatchPipeline does to each image, parsed from a spec of items separated by ',' :
+// - TYPE or TYPE:color : a FilterType step of a FilterChain. color is RRGGBB or AARRGGBB, the layer
+//   of the step(alpha is the strength). Without color, the default color of the type or opaque white.
+// - blur=radius, mosaic=size, seed=n, noise=intensity : options of BLUR2, MOSAIC and NOISE steps.
+// - CONVERTER:color : ColorConverter replace with color, instead of steps.
+//   ColorConverter uses android.graphics, so it runs only where that is available.
+// - precision=EXACT|FAST|APPROX : Precision of the converter. EXACT by default.
+// e.g. "SEPIA,BLUR2:80ffffff,blur=8" or "REPLACE_AB_IN_LAB:ff8000,precision=FAST"
+public class BatchPreset {
+    private final String spec;
+    private final FilterChain.Compiled chain;
+    private final ColorConverter converter;
+    private final int replaceColor;
+    private float blurRadius = 15f;
+    private int mosaicSize = CpuFilterScript.DEFAULT_MOSAIC_SIZE;
+    private HashNoise noise = HashNoise.DEFAULT;
+    private Precision precision = Precision.EXACT;
+
+    private float[] replaceData;
+
+    public static BatchPreset parse(String spec) {
+        return new BatchPreset(spec);
+    }
+
+    private BatchPreset(String spec) {
+        this.spec = spec;
+        FilterChain steps = new FilterChain();
+        ColorConverter converter = null;
+        int replaceColor = 0;
+        for (String item : spec.split(",")) {
+            item = item.trim();
+            if (item.length() == 0) {
+                continue;
+            }
+            int equal = item.indexOf('=');
+            if (equal >= 0) {
+                setOption(item.substring(0, equal).trim(), item.substring(equal + 1).trim());
+                continue;
+            }
+            int colon = item.indexOf(':');
+            String name = (colon >= 0 ? item.substring(0, colon) : item).trim().toUpperCase(Locale.US);
+            String color = colon >= 0 ? item.substring(colon + 1).trim() : null;
+            FilterType type = getFilterType(name);
+            if (type != null) {
+                steps.add(type, color != null ? parseColor(color) : getDefaultColor(type));
+            } else if (color != null && converter == null) {
+                converter = getConverter(name);
+                replaceColor = parseColor(color);
+            } else {
+                throw new IllegalArgumentException("unknown item " + item + " in " + spec);
+            }
+        }
+        if (converter != null && steps.size() > 0) {
+            throw new IllegalArgumentException("a converter can't be mixed with filters : " + spec);
+        }
+        if (converter == null && steps.size() == 0) {
+            throw new IllegalArgumentException("no filter in " + spec);
+        }
+        this.converter = converter;
+        this.replaceColor = replaceColor;
+        chain = converter == null ? steps.compile() : null;
+    }
+
+    private void setOption(String key, String value) {
+        try {
+            if (key.equals("blur")) {
+                blurRadius = Float.parseFloat(value);
+            } else if (key.equals("mosaic")) {
+                mosaicSize = Math.max(1, Integer.parseInt(value));
+            } else if (key.equals("seed")) {
+                noise = noise.withSeed(Integer.parseInt(value));
+            } else if (key.equals("noise")) {
+                noise = noise.withIntensity(Float.parseFloat(value));
+            } else if (key.equals("precision")) {
+                precision = getPrecision(value);
+            } else {
+                throw new IllegalArgumentException("unknown option " + key);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("bad value of " + key + " : " + value, e);
+        }
+    }
+
+    private static FilterType getFilterType(String name) {
+        for (FilterType type : FilterType.values()) {
+            if (type.name().equals(name)) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    private static Precision getPrecision(String name) {
+        try {
+            return Precision.valueOf(name.toUpperCase(Locale.US));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("unknown precision " + name, e);
+        }
+    }
+
+    private static ColorConverter getConverter(String name) {
+        try {
+            return ColorConverter.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("unknown filter or converter " + name, e);
+        }
+    }
+
+    private static int parseColor(String color) {
+        if (color.startsWith("#")) {
+            color = color.substring(1);
+        }
+        if (color.length() != 6 && color.length() != 8) {
+            throw new IllegalArgumentException("color must be RRGGBB or AARRGGBB : " + color);
+        }
+        try {
+            int c = (int) Long.parseLong(color, 16);
+            return color.length() == 6 ? 0xff000000 | c : c;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("bad color " + color, e);
+        }
+    }
+
+    // defaultR of MainActivity's seek bars, if the type has them
+    private static int getDefaultColor(FilterType type) {
+        if (type.defaultR == -1f) {
+            return 0xffffffff;
+        }
+        float b = type.defaultB == -1f ? 0f : type.defaultB;
+        return 0xff000000 | component(type.defaultR) << 16 | component(type.defaultG) << 8 | component(b);
+    }
+
+    private static int component(float v) {
+        return Math.round(Math.max(0f, Math.min(v, 1f)) * 255f);
+    }
+
+    // passes over the image per apply
+    public int getPassCount() {
+        return chain != null ? chain.getPassCount() : 1;
+    }
+
+    // Applies to pixels(script's width * height) in place, on the scheduler of script.
+    // Not thread safe. BatchPipeline calls it from its filter stage only.
+    public void apply(CpuFilterScript script, final int[] pixels) {
+        if (chain != null) {
+            script.setOptions(blurRadius, BoxBlur.EdgeMode.CLAMP, mosaicSize, noise);
+            script.setInputPixels(pixels);
+            chain.apply(script, pixels);
+            return;
+        }
+        if (replaceData == null) {
+            replaceData = converter.getPrecomputedData(replaceColor);
+        }
+        final float[] data = replaceData;
+        final Precision precision = this.precision;
+        final int width = script.getWidth();
+        script.forEachBand(0, script.getHeight(), new CpuFilterScript.BandTask() {
+            @Override
+            public void run(int top, int bottom) {
+                converter.colorReplace(pixels, top * width, pixels, top * width, (bottom - top) * width, data,
+                        precision);
+            }
+        });
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+}
@@ -0,0 +1,83 @@
+package com.easetheworld.renderscript.blendmode;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+// Command line of BatchPipeline, for a desktop jvm.
+// e.g. BatchRunner "SEPIA,BLUR2:80ffffff,blur=8" in out --codec com.easetheworld.renderscript.blendmode.ImageIOCodec
+public class BatchRunner {
+
+    private static final String USAGE = "usage : BatchRunner <preset> <input dir> <output dir>"
+            + " [--codec raw|<class name>] [--decode-threads n] [--encode-threads n] [--queue n]";
+
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        String codecName = "raw";
+        int decodeThreads = Math.max(1, cores / 2);
+        int encodeThreads = Math.max(1, cores / 2);
+        int queue = 4;
+        BatchPreset preset = null;
+        try {
+            preset = BatchPreset.parse(args[0]);
+            for (int i = 3; i < args.length; i++) {
+                String option = args[i];
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("no value of " + option);
+                }
+                String value = args[++i];
+                if (option.equals("--codec")) {
+                    codecName = value;
+                } else if (option.equals("--decode-threads")) {
+                    decodeThreads = Integer.parseInt(value);
+                } else if (option.equals("--encode-threads")) {
+                    encodeThreads = Integer.parseInt(value);
+                } else if (option.equals("--queue")) {
+                    queue = Integer.parseInt(value);
+                } else {
+                    throw new IllegalArgumentException("unknown option " + option);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        File inputDir = new File(args[1]);
+        File outputDir = new File(args[2]);
+        if (!inputDir.isDirectory()) {
+            throw new IllegalArgumentException("not a directory : " + inputDir);
+        }
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            throw new IllegalArgumentException("can't make " + outputDir);
+        }
+
+        BatchPipeline pipeline = new BatchPipeline(getCodec(codecName), preset, TileScheduler.getDefault(),
+                decodeThreads, encodeThreads, queue);
+        List<File> inputs = pipeline.listInputs(inputDir);
+        System.out.println(preset + " : " + inputs.size() + " images of " + inputDir + " to " + outputDir);
+        BatchPipeline.Result result = pipeline.run(inputs, outputDir);
+        System.out.print(result);
+        for (Map.Entry<File, String> failure : result.failures.entrySet()) {
+            System.err.println(failure.getKey() + " : " + failure.getValue());
+        }
+        System.exit(result.failures.isEmpty() ? 0 : 1);
+    }
+
+    // raw, or a class with a public no-arg constructor, like ImageIOCodec
+    private static ImageCodec getCodec(String name) {
+        if (name.equals("raw")) {
+            return new RawImageCodec();
+        }
+        try {
+            return (ImageCodec) Class.forName(name).getDeclaredConstructor().newInstance();
+        } catch (Exception e) {
+            throw new IllegalArgumentException("can't make codec " + name, e);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.easetheworld.renderscript.blendmode;
+
+// Box blur by running sums. Moving the window one pixel adds the entering pixel and
+// subtracts the leaving one, so the cost per pixel doesn't depend on the radius.
+// Three box blurs in a row approximate a gaussian(see getGaussianRadii).
+// processBlur in filter.rs loops (2r+1)^2 pixels per pixel and reads outside the image at edges.
+public class BoxBlur {
+
+    // how pixels outside the image are read
+    public enum EdgeMode {
+        // nearest edge pixel
+        CLAMP {
+            @Override
+            int map(int i, int n) {
+                return Math.min(Math.max(i, 0), n - 1);
+            }
+        },
+        // reflected at the edge pixel, without repeating it. (-1 is 1, n is n - 2)
+        MIRROR {
+            @Override
+            int map(int i, int n) {
+                if (n == 1) {
+                    return 0;
+                }
+                int period = 2 * n - 2;
+                i %= period;
+                if (i < 0) {
+                    i += period;
+                }
+                return i < n ? i : period - i;
+            }
+        };
+
+        abstract int map(int i, int n);
+
+        // index[k] is the source of position k - r, for k in [0, n + 2r].
+        // the window of position x is index[x] ~ index[x + 2r].
+        int[] indices(int n, int r) {
+            int[] index = new int[n + 2 * r + 1];
+            for (int k = 0; k < index.length; k++) {
+                index[k] = map(k - r, n);
+            }
+            return index;
+        }
+    }
+
+    private BoxBlur() {
+    }
+
+    // Radii of 3 box blurs whose result is close to a gaussian of sigma.
+    // from "Fast Almost-Gaussian Filtering"(Kovesi), box widths are w or w + 2 so that
+    // the variance sum is closest to sigma^2.
+    public static int[] getGaussianRadii(float sigma) {
+        final int n = 3;
+        float ideal = (float) Math.sqrt(12f * sigma * sigma / n + 1f);
+        int wl = (int) Math.floor(ideal);
+        if (wl % 2 == 0) {
+            wl--;
+        }
+        int wu = wl + 2;
+        int m = Math.round((12f * sigma * sigma - n * wl * wl - 4f * n * wl - 3f * n) / (-4f * wl - 4f));
+        int[] radii = new int[n];
+        for (int i = 0; i < n; i++) {
+            radii[i] = ((i < m ? wl : wu) - 1) / 2;
+        }
+        return radii;
+    }
+
+    // rows [top, bottom) of src blurred horizontally into dst.
+    // index is EdgeMode.indices(width, r).
+    static void horizontal(int[] src, int[] dst, int width, int top, int bottom, int r, int[] index) {
+        int size = 2 * r + 1;
+        int half = size / 2;
+        for (int y = top; y < bottom; y++) {
+            int row = y * width;
+            int red = 0, green = 0, blue = 0;
+            for (int k = 0; k < size; k++) {
+                int c = src[row + index[k]];
+                red += (c >> 16) & 0xff;
+                green += (c >> 8) & 0xff;
+                blue += c & 0xff;
+            }
+            for (int x = 0; x < width; x++) {
+                dst[row + x] = 0xff000000 | ((red + half) / size << 16) | ((green + half) / size << 8)
+                        | (blue + half) / size;
+                int in = src[row + index[x + size]];
+                int out = src[row + index[x]];
+                red += ((in >> 16) & 0xff) - ((out >> 16) & 0xff);
+                green += ((in >> 8) & 0xff) - ((out >> 8) & 0xff);
+                blue += (in & 0xff) - (out & 0xff);
+            }
+        }
+    }
+
+    // rows [top, bottom) of dst from src blurred vertically.
+    // sums of all columns slide down together, so memory is read row by row.
+    // index is EdgeMode.indices(height, r).
+    static void vertical(int[] src, int[] dst, int width, int top, int bottom, int r, int[] index) {
+        int size = 2 * r + 1;
+        int half = size / 2;
+        int[] red = new int[width];
+        int[] green = new int[width];
+        int[] blue = new int[width];
+        for (int k = top; k < top + size; k++) {
+            int row = index[k] * width;
+            for (int x = 0; x < width; x++) {
+                int c = src[row + x];
+                red[x] += (c >> 16) & 0xff;
+                green[x] += (c >> 8) & 0xff;
+                blue[x] += c & 0xff;
+            }
+        }
+        for (int y = top; y < bottom; y++) {
+            int row = y * width;
+            int inRow = index[y + size] * width;
+            int outRow = index[y] * width;
+            for (int x = 0; x < width; x++) {
+                dst[row + x] = 0xff000000 | ((red[x] + half) / size << 16) | ((green[x] + half) / size << 8)
+                        | (blue[x] + half) / size;
+                int in = src[inRow + x];
+                int out = src[outRow + x];
+                red[x] += ((in >> 16) & 0xff) - ((out >> 16) & 0xff);
+                green[x] += ((in >> 8) & 0xff) - ((out >> 8) & 0xff);
+                blue[x] += (in & 0xff) - (out & 0xff);
+            }
+        }
+    }
+}
@@ -0,0 +1,651 @@
+package com.easetheworld.renderscript.blendmode;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import com.easetheworld.renderscript.blendmode.FilterScript.FilterType;
+
+// Same as FilterScript, but runs filter.rs in plain java over ARGB int[] buffers
+// (the layout of Bitmap.getPixels) so it works without RenderScript.
+// Filters run by tiles of TileScheduler, passes over whole rows(blur, tables) by bands.
+public class CpuFilterScript {
+
+    // bands per thread. more bands balance uneven bands better.
+    private static final int BANDS_PER_THREAD = 4;
+
+    // in, blending, drawing and out of a tile fit in L2 cache.
+    private static final int TILE_SIZE = TileScheduler.getTileSize(4 * 4, TileScheduler.DEFAULT_CACHE_BYTES);
+
+    final int width;
+    final int height;
+
+    final int[] inPixels;
+    final int[] blendingPixels;
+    final int[] drawingPixels;
+    final int[] outPixels;
+    final int[] inBlurPixels;
+    // empty and opaque tiles of drawingPixels skip the per pixel kernel.
+    final AlphaTileIndex drawingIndex;
+
+    private final TileScheduler scheduler;
+    private final int bandCount;
+
+    private volatile boolean separableBlendEnabled = true;
+
+    // inBlurPixels is computed on first use by BLUR2, like blurScript in FilterScript but lazily.
+    private float blurRadius = 15f;
+    private BoxBlur.EdgeMode blurEdgeMode = BoxBlur.EdgeMode.CLAMP;
+    private boolean blurValid;
+
+    // inTable is allocated and built on first use by MOSAIC.
+    private SummedAreaTable inTable;
+    private int mosaicSize = DEFAULT_MOSAIC_SIZE;
+    private boolean tableValid;
+
+    private volatile HashNoise noise = HashNoise.DEFAULT;
+
+    // null disables recording
+    private volatile FilterMetrics metrics = new FilterMetrics();
+
+    // same as mosaicSize in filter.rs
+    public static final int DEFAULT_MOSAIC_SIZE = 20;
+
+    public CpuFilterScript(int[] in, int width, int height) {
+        this(in, width, height, TileScheduler.getDefault());
+    }
+
+    // parallelism is the number of threads of executor.
+    public CpuFilterScript(int[] in, int width, int height, ExecutorService executor, int parallelism) {
+        this(in, width, height, new TileScheduler(executor, parallelism));
+    }
+
+    // scheduler may be shared, e.g. so that jobs of several scripts are run by priority.
+    public CpuFilterScript(int[] in, int width, int height, TileScheduler scheduler) {
+        if (in.length < width * height) {
+            throw new IllegalArgumentException("in is smaller than " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.scheduler = scheduler;
+        bandCount = scheduler.getParallelism() * BANDS_PER_THREAD;
+
+        int size = width * height;
+        inPixels = new int[size];
+        blendingPixels = new int[size];
+        drawingPixels = new int[size];
+        outPixels = new int[size];
+        inBlurPixels = new int[size];
+        drawingIndex = new AlphaTileIndex(width, height, TileCompositor.DEFAULT_TILE_SIZE);
+        System.arraycopy(in, 0, inPixels, 0, size);
+        System.arraycopy(in, 0, outPixels, 0, size);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public TileScheduler getScheduler() {
+        return scheduler;
+    }
+
+    public void setInputPixels(int[] pixels) {
+        System.arraycopy(pixels, 0, inPixels, 0, inPixels.length);
+        synchronized (this) {
+            blurValid = false;
+            tableValid = false;
+        }
+    }
+
+    public void setBlendingPixels(int[] pixels) {
+        System.arraycopy(pixels, 0, blendingPixels, 0, blendingPixels.length);
+    }
+
+    // drawing pixels are not premultiplied, as Bitmap.getPixels returns them.
+    public void setDrawingPixels(final int[] pixels) {
+        System.arraycopy(pixels, 0, drawingPixels, 0, drawingPixels.length);
+        // forEachBand only splits a range, so it splits tile rows as well.
+        forEachBand(0, drawingIndex.getRows(), new BandTask() {
+            @Override
+            public void run(int top, int bottom) {
+                drawingIndex.updateTileRows(drawingPixels, top, bottom, 0, drawingIndex.getColumns());
+            }
+        });
+    }
+
+    // Copies only the rect(e.g. bounds of a stroke) of pixels, which is width * height.
+    public void setDrawingPixels(int[] pixels, int left, int top, int right, int bottom) {
+        left = Math.max(left, 0);
+        top = Math.max(top, 0);
+        right = Math.min(right, width);
+        bottom = Math.min(bottom, height);
+        for (int y = top; y < bottom; y++) {
+            System.arraycopy(pixels, y * width + left, drawingPixels, y * width + left, right - left);
+        }
+        drawingIndex.update(drawingPixels, left, top, right, bottom);
+    }
+
+    public void apply(FilterType type, int[] out) {
+        applyRect(type, out, -1, -1, -1, -1);
+    }
+
+    public void applyRect(FilterType type, int[] out, int left, int top, int right, int bottom) {
+        long t1 = System.nanoTime();
+        if (left < 0 && right < 0) {
+            left = 0;
+            top = 0;
+            right = width;
+            bottom = height;
+        } else {
+            left = Math.max(left, 0);
+            top = Math.max(top, 0);
+            right = Math.min(right, width);
+            bottom = Math.min(bottom, height);
+        }
+        if (left < right && top < bottom) {
+            filterRect(type, left, top, right, bottom);
+        }
+        System.arraycopy(outPixels, 0, out, 0, outPixels.length);
+        FilterMetrics metrics = this.metrics;
+        if (metrics != null) {
+            long pixels = (long) Math.max(0, right - left) * Math.max(0, bottom - top);
+            metrics.record(type, System.nanoTime() - t1, pixels, outPixels.length, outPixels.length * 4L);
+        }
+    }
+
+    // Filters only the dirty tiles of compositor and writes only them back to out.
+    // Unlike applyRect, the rest of out is left untouched, so out must hold the previous result.
+    public void applyDirty(final FilterType type, final int[] out, TileCompositor compositor) {
+        long t1 = System.nanoTime();
+        final long[] pixels = new long[1];
+        int tiles = compositor.flush(new TileCompositor.RectCallback() {
+            @Override
+            public void onRect(int left, int top, int right, int bottom) {
+                renderRect(type, out, left, top, right, bottom);
+                pixels[0] += (long) (right - left) * (bottom - top);
+            }
+        });
+        FilterMetrics metrics = this.metrics;
+        if (metrics != null && tiles > 0) {
+            // renderRect copies back only the rects.
+            metrics.record(type, System.nanoTime() - t1, pixels[0], outPixels.length, pixels[0] * 4);
+        }
+    }
+
+    public FilterMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(FilterMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // Filters the rect(inside the image) and copies only it to out.
+    void renderRect(FilterType type, int[] out, int left, int top, int right, int bottom) {
+        filterRect(type, left, top, right, bottom);
+        for (int y = top; y < bottom; y++) {
+            System.arraycopy(outPixels, y * width + left, out, y * width + left, right - left);
+        }
+    }
+
+    // Composites layers(bottom first) over the input in one pass.
+    // Each layer does out = alphaMix(below, filter(below, layer)) with alpha of layer * opacity,
+    // like applyRect with the result so far as both src and blending.
+    // The intermediate colors stay in float per pixel instead of going through full buffers.
+    // MOSAIC and BLUR2 read neighbors, so they sample the input, not the layers below.
+    public void applyLayers(List<Layer> layers, int[] out, int left, int top, int right, int bottom) {
+        if (left < 0 && right < 0) {
+            left = 0;
+            top = 0;
+            right = width;
+            bottom = height;
+        } else {
+            left = Math.max(left, 0);
+            top = Math.max(top, 0);
+            right = Math.min(right, width);
+            bottom = Math.min(bottom, height);
+        }
+        if (left < right && top < bottom) {
+            int n = layers.size();
+            final ProcessFunc[] funcs = new ProcessFunc[n];
+            final int[][] layerPixels = new int[n][];
+            final float[] opacities = new float[n];
+            for (int i = 0; i < n; i++) {
+                Layer layer = layers.get(i);
+                prepare(layer.type, TileScheduler.PRIORITY_NORMAL);
+                funcs[i] = ProcessFunc.get(layer.type);
+                layerPixels[i] = layer.pixels;
+                opacities[i] = layer.getOpacity() / 255f;
+            }
+            final int l = left;
+            final int r = right;
+            forEachBand(top, bottom, new BandTask() {
+                @Override
+                public void run(int bandTop, int bandBottom) {
+                    compositeBand(funcs, layerPixels, opacities, l, bandTop, r, bandBottom);
+                }
+            });
+        }
+        System.arraycopy(outPixels, 0, out, 0, outPixels.length);
+    }
+
+    // opacities are already divided by 255, so that opacity * mask alpha is the mix factor.
+    private void compositeBand(ProcessFunc[] funcs, int[][] layerPixels, float[] opacities, int left, int top,
+            int right, int bottom) {
+        ProcessContext ctx = newContext();
+        float[] cur = new float[3];
+        float[] layer = new float[3];
+        float[] filter = new float[3];
+        int n = funcs.length;
+        for (int y = top; y < bottom; y++) {
+            int i = y * width + left;
+            for (int x = left; x < right; x++, i++) {
+                ProcessFunc.unpack(inPixels[i], cur);
+                for (int k = 0; k < n; k++) {
+                    int layerColor = layerPixels[k][i];
+                    float a = (layerColor >>> 24) * opacities[k];
+                    if (a == 0f) {
+                        continue;
+                    }
+                    ProcessFunc.unpack(layerColor, layer);
+                    funcs[k].process(ctx, cur, layer, x, y, filter);
+                    cur[0] += (filter[0] - cur[0]) * a;
+                    cur[1] += (filter[1] - cur[1]) * a;
+                    cur[2] += (filter[2] - cur[2]) * a;
+                }
+                outPixels[i] = ProcessFunc.pack(cur[0], cur[1], cur[2]);
+            }
+        }
+    }
+
+    // Filters a camera frame straight into out, with the frame as both src and blending.
+    // Each band converts a row of YUV to ARGB and filters it right away, so the frame is read once
+    // and none of the input, blending and out buffers of this script are touched.
+    // MOSAIC and BLUR2 read other pixels, so for them the frame is converted to the input first.
+    public void applyYuv(FilterType type, final YuvFrame frame, final int[] out) {
+        if (frame.width != width || frame.height != height) {
+            throw new IllegalArgumentException("frame is " + frame.width + "x" + frame.height + ", not " + width
+                    + "x" + height);
+        }
+        if (FilterChain.Kind.of(type) == FilterChain.Kind.NEIGHBORHOOD) {
+            forEachBand(0, height, new BandTask() {
+                @Override
+                public void run(int top, int bottom) {
+                    for (int y = top; y < bottom; y++) {
+                        frame.convertRow(y, 0, width, inPixels, y * width);
+                    }
+                }
+            });
+            synchronized (this) {
+                blurValid = false;
+                tableValid = false;
+            }
+            prepare(type, TileScheduler.PRIORITY_NORMAL);
+        }
+        final ProcessFunc func = ProcessFunc.get(type);
+        forEachBand(0, height, new BandTask() {
+            @Override
+            public void run(int top, int bottom) {
+                filterYuvBand(func, frame, out, top, bottom);
+            }
+        });
+    }
+
+    private void filterYuvBand(ProcessFunc func, YuvFrame frame, int[] out, int top, int bottom) {
+        ProcessContext ctx = newContext();
+        int[] row = new int[width];
+        float[] in = new float[3];
+        float[] layer = new float[3];
+        float[] filter = new float[3];
+        for (int y = top; y < bottom; y++) {
+            frame.convertRow(y, 0, width, row, 0);
+            int i = y * width;
+            for (int x = 0; x < width; x++, i++) {
+                int drawing = drawingPixels[i];
+                int drawingAlpha = drawing >>> 24;
+                if (drawingAlpha == 0) {
+                    out[i] = row[x];
+                } else {
+                    float a = drawingAlpha / 255f;
+                    ProcessFunc.unpack(row[x], in);
+                    ProcessFunc.unpack(drawing, layer);
+                    func.process(ctx, in, layer, x, y, filter);
+                    out[i] = ProcessFunc.pack(in[0] + (filter[0] - in[0]) * a, in[1] + (filter[1] - in[1]) * a,
+                            in[2] + (filter[2] - in[2]) * a);
+                }
+            }
+        }
+    }
+
+    // rect must be inside the image.
+    void filterRect(FilterType type, int left, int top, int right, int bottom) {
+        submitRect(type, left, top, right, bottom, TileScheduler.PRIORITY_NORMAL).await();
+    }
+
+    // Starts filtering the rect(inside the image) into outPixels by tiles.
+    // What the filter reads besides the input pixel is computed first, on this thread, by bands of priority.
+    TileScheduler.Job submitRect(FilterType type, int left, int top, int right, int bottom, int priority) {
+        prepare(type, priority);
+        final ProcessFunc func = ProcessFunc.get(type);
+        final SeparableBlend blend = separableBlendEnabled ? SeparableBlend.get(type) : null;
+        final UniformLayerBlend uniform = UniformLayerBlend.get(type);
+        return scheduler.submit(left, top, right, bottom, TILE_SIZE, TILE_SIZE, priority,
+                new TileScheduler.TileTask() {
+                    @Override
+                    public void run(int l, int t, int r, int b) {
+                        if (blend != null) {
+                            filterBand(blend, l, t, r, b);
+                        } else if (uniform != null) {
+                            filterBand(uniform, l, t, r, b);
+                        } else {
+                            filterBand(func, l, t, r, b);
+                        }
+                    }
+                });
+    }
+
+    // Separable blend modes run through SeparableBlend row kernels unless disabled.
+    // When disabled, every mode uses per pixel ProcessFunc.
+    public void setSeparableBlendEnabled(boolean enabled) {
+        separableBlendEnabled = enabled;
+    }
+
+    public void setBlurRadius(float radius, int[] out) {
+        synchronized (this) {
+            blurRadius = radius;
+            blurValid = false;
+        }
+        apply(FilterType.BLUR2, out);
+    }
+
+    // out = alphaMix(blending, filter(src, drawing)). same as root() in filter.rs
+    // Runs of tiles are handled by their state in drawingIndex.
+    private void filterBand(ProcessFunc func, int left, int top, int right, int bottom) {
+        ProcessContext ctx = newContext();
+        float[] in = new float[3];
+        float[] layer = new float[3];
+        float[] filter = new float[3];
+        float[] dst = new float[3];
+        for (int y = top; y < bottom; y++) {
+            for (int x = left; x < right;) {
+                int end = drawingIndex.getRunEnd(x, y, right);
+                int state = drawingIndex.getStateAt(x, y);
+                int i = y * width + x;
+                if (state == AlphaTileIndex.EMPTY) {
+                    System.arraycopy(blendingPixels, i, outPixels, i, end - x);
+                } else if (state == AlphaTileIndex.OPAQUE) {
+                    for (; x < end; x++, i++) {
+                        ProcessFunc.unpack(inPixels[i], in);
+                        ProcessFunc.unpack(drawingPixels[i], layer);
+                        func.process(ctx, in, layer, x, y, filter);
+                        outPixels[i] = ProcessFunc.pack(filter[0], filter[1], filter[2]);
+                    }
+                } else {
+                    for (; x < end; x++, i++) {
+                        int drawing = drawingPixels[i];
+                        int drawingAlpha = drawing >>> 24;
+                        if (drawingAlpha == 0) {
+                            outPixels[i] = blendingPixels[i];
+                        } else {
+                            float a = drawingAlpha / 255f;
+                            ProcessFunc.unpack(inPixels[i], in);
+                            ProcessFunc.unpack(drawing, layer);
+                            ProcessFunc.unpack(blendingPixels[i], dst);
+                            func.process(ctx, in, layer, x, y, filter);
+                            outPixels[i] = ProcessFunc.pack(dst[0] + (filter[0] - dst[0]) * a,
+                                    dst[1] + (filter[1] - dst[1]) * a,
+                                    dst[2] + (filter[2] - dst[2]) * a);
+                        }
+                    }
+                }
+                x = end;
+            }
+        }
+    }
+
+    // Same as filterBand(ProcessFunc) for HUE, SATURATION, COLOR and VALUE,
+    // but the layer is precomputed only when its color differs from the last pixel's.
+    private void filterBand(UniformLayerBlend blend, int left, int top, int right, int bottom) {
+        float[] in = new float[3];
+        float[] layer = new float[3];
+        float[] filter = new float[3];
+        float[] dst = new float[3];
+        float[] hsv = new float[3];
+        float[] data = new float[UniformLayerBlend.DATA_LENGTH];
+        // rgb of the precomputed layer, or -1(no alpha bits) if none yet
+        int dataColor = -1;
+        for (int y = top; y < bottom; y++) {
+            for (int x = left; x < right;) {
+                int end = drawingIndex.getRunEnd(x, y, right);
+                int state = drawingIndex.getStateAt(x, y);
+                int i = y * width + x;
+                if (state == AlphaTileIndex.EMPTY) {
+                    System.arraycopy(blendingPixels, i, outPixels, i, end - x);
+                    x = end;
+                    continue;
+                }
+                boolean opaque = state == AlphaTileIndex.OPAQUE;
+                for (; x < end; x++, i++) {
+                    int drawing = drawingPixels[i];
+                    int drawingAlpha = drawing >>> 24;
+                    if (drawingAlpha == 0) {
+                        outPixels[i] = blendingPixels[i];
+                        continue;
+                    }
+                    if ((drawing & 0xffffff) != dataColor) {
+                        dataColor = drawing & 0xffffff;
+                        ProcessFunc.unpack(drawing, layer);
+                        blend.precompute(layer[0], layer[1], layer[2], data);
+                    }
+                    ProcessFunc.unpack(inPixels[i], in);
+                    blend.process(in, data, hsv, filter);
+                    if (opaque) {
+                        outPixels[i] = ProcessFunc.pack(filter[0], filter[1], filter[2]);
+                    } else {
+                        float a = drawingAlpha / 255f;
+                        ProcessFunc.unpack(blendingPixels[i], dst);
+                        outPixels[i] = ProcessFunc.pack(dst[0] + (filter[0] - dst[0]) * a,
+                                dst[1] + (filter[1] - dst[1]) * a,
+                                dst[2] + (filter[2] - dst[2]) * a);
+                    }
+                }
+            }
+        }
+    }
+
+    private void filterBand(SeparableBlend blend, int left, int top, int right, int bottom) {
+        SeparableBlend.Buffers buffers = new SeparableBlend.Buffers();
+        for (int y = top; y < bottom; y++) {
+            int rowOffset = y * width;
+            for (int x = left; x < right;) {
+                int end = drawingIndex.getRunEnd(x, y, right);
+                int state = drawingIndex.getStateAt(x, y);
+                if (state == AlphaTileIndex.EMPTY) {
+                    System.arraycopy(blendingPixels, rowOffset + x, outPixels, rowOffset + x, end - x);
+                    x = end;
+                    continue;
+                }
+                for (; x < end; x += SeparableBlend.RUN_LENGTH) {
+                    int n = Math.min(SeparableBlend.RUN_LENGTH, end - x);
+                    if (state == AlphaTileIndex.OPAQUE) {
+                        blend.blendRunOpaque(buffers, inPixels, drawingPixels, outPixels, rowOffset + x, n);
+                    } else {
+                        blend.blendRun(buffers, inPixels, drawingPixels, blendingPixels, outPixels, rowOffset + x,
+                                n);
+                    }
+                }
+                x = end;
+            }
+        }
+    }
+
+    // computes what type reads besides the input pixel, if not done yet.
+    private synchronized void prepare(FilterType type, int priority) {
+        if (type == FilterType.BLUR2 && !blurValid) {
+            gaussianBlur(inPixels, inBlurPixels, getSigma(blurRadius), blurEdgeMode, priority);
+            blurValid = true;
+        } else if (type == FilterType.MOSAIC && !tableValid) {
+            if (inTable == null) {
+                inTable = new SummedAreaTable(width, height);
+            }
+            buildTable(inPixels, inTable, priority);
+            tableValid = true;
+        }
+    }
+
+    private synchronized ProcessContext newContext() {
+        return new ProcessContext(inPixels, inBlurPixels, inTable, mosaicSize, width, height, noise);
+    }
+
+    // Builds table of src in parallel. rows are split among threads, then columns.
+    void buildTable(int[] src, SummedAreaTable table) {
+        buildTable(src, table, TileScheduler.PRIORITY_NORMAL);
+    }
+
+    private void buildTable(final int[] src, final SummedAreaTable table, int priority) {
+        forEachBand(0, height, priority, new BandTask() {
+            @Override
+            public void run(int top, int bottom) {
+                table.buildRows(src, top, bottom);
+            }
+        });
+        // forEachBand only splits a range, so it splits columns as well.
+        forEachBand(0, width, priority, new BandTask() {
+            @Override
+            public void run(int left, int right) {
+                table.buildColumns(left, right);
+            }
+        });
+    }
+
+    // Summed area table of the input, for averages of any rect(e.g. box blur queries).
+    public synchronized SummedAreaTable getSummedAreaTable() {
+        prepare(FilterType.MOSAIC, TileScheduler.PRIORITY_NORMAL);
+        return inTable;
+    }
+
+    public void setMosaicSize(int size, int[] out) {
+        synchronized (this) {
+            mosaicSize = Math.max(1, size);
+        }
+        apply(FilterType.MOSAIC, out);
+    }
+
+    synchronized int getMosaicSize() {
+        return mosaicSize;
+    }
+
+    // NOISE is a function of position, so applyRect of any rect matches apply of the whole image.
+    public void setNoise(HashNoise noise, int[] out) {
+        this.noise = noise;
+        apply(FilterType.NOISE, out);
+    }
+
+    public HashNoise getNoise() {
+        return noise;
+    }
+
+    // Sets the options of BLUR2, MOSAIC and NOISE at once without applying anything.
+    synchronized void setOptions(float blurRadius, BoxBlur.EdgeMode blurEdgeMode, int mosaicSize, HashNoise noise) {
+        if (blurRadius != this.blurRadius || blurEdgeMode != this.blurEdgeMode) {
+            this.blurRadius = blurRadius;
+            this.blurEdgeMode = blurEdgeMode;
+            blurValid = false;
+        }
+        this.mosaicSize = Math.max(1, mosaicSize);
+        this.noise = noise;
+    }
+
+    synchronized float getBlurRadius() {
+        return blurRadius;
+    }
+
+    // Gaussian of src into dst, approximated by 3 box blurs.
+    // sigma is same as ScriptIntrinsicBlur so BLUR2 looks the same.
+    void blur(int[] src, int[] dst, float radius) {
+        gaussianBlur(src, dst, getSigma(radius), getBlurEdgeMode(), TileScheduler.PRIORITY_NORMAL);
+    }
+
+    private static float getSigma(float radius) {
+        return 0.4f * radius + 0.6f;
+    }
+
+    // src and dst are width * height pixels and may be the same array.
+    // The cost doesn't depend on radius.
+    public void boxBlur(int[] src, int[] dst, int radius, BoxBlur.EdgeMode edge) {
+        int[] tmp = new int[src.length];
+        boxBlur(src, tmp, dst, radius, edge, TileScheduler.PRIORITY_NORMAL);
+    }
+
+    public void gaussianBlur(int[] src, int[] dst, float sigma, BoxBlur.EdgeMode edge) {
+        gaussianBlur(src, dst, sigma, edge, TileScheduler.PRIORITY_NORMAL);
+    }
+
+    private void gaussianBlur(int[] src, int[] dst, float sigma, BoxBlur.EdgeMode edge, int priority) {
+        int[] tmp = new int[src.length];
+        int[] radii = BoxBlur.getGaussianRadii(sigma);
+        boxBlur(src, tmp, dst, radii[0], edge, priority);
+        for (int i = 1; i < radii.length; i++) {
+            boxBlur(dst, tmp, dst, radii[i], edge, priority);
+        }
+    }
+
+    private void boxBlur(final int[] src, final int[] tmp, final int[] dst, final int radius, BoxBlur.EdgeMode edge,
+            int priority) {
+        final int[] columns = edge.indices(width, radius);
+        final int[] rows = edge.indices(height, radius);
+        forEachBand(0, height, priority, new BandTask() {
+            @Override
+            public void run(int top, int bottom) {
+                BoxBlur.horizontal(src, tmp, width, top, bottom, radius, columns);
+            }
+        });
+        forEachBand(0, height, priority, new BandTask() {
+            @Override
+            public void run(int top, int bottom) {
+                BoxBlur.vertical(tmp, dst, width, top, bottom, radius, rows);
+            }
+        });
+    }
+
+    public void setBlurEdgeMode(BoxBlur.EdgeMode edge) {
+        synchronized (this) {
+            blurEdgeMode = edge;
+            blurValid = false;
+        }
+    }
+
+    public synchronized BoxBlur.EdgeMode getBlurEdgeMode() {
+        return blurEdgeMode;
+    }
+
+    interface BandTask {
+        void run(int top, int bottom);
+    }
+
+    // Runs task over rows [top, bottom) split into bands, and waits until all bands are done.
+    void forEachBand(int top, int bottom, BandTask task) {
+        forEachBand(top, bottom, TileScheduler.PRIORITY_NORMAL, task);
+    }
+
+    // bands of a background job(e.g. a refine) are taken after tiles of higher priority.
+    void forEachBand(int top, int bottom, int priority, final BandTask task) {
+        int rows = bottom - top;
+        int bands = Math.min(bandCount, rows);
+        if (bands <= 1) {
+            task.run(top, bottom);
+            return;
+        }
+        // bands are tiles of a one pixel wide rect.
+        scheduler.run(0, top, 1, bottom, 1, (rows + bands - 1) / bands, priority,
+                new TileScheduler.TileTask() {
+                    @Override
+                    public void run(int left, int bandTop, int right, int bandBottom) {
+                        task.run(bandTop, bandBottom);
+                    }
+                });
+    }
+}
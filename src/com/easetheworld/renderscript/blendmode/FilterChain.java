@@ -0,0 +1,269 @@
+package com.easetheworld.renderscript.blendmode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.easetheworld.renderscript.blendmode.FilterScript.FilterType;
+
+// A preset: filters applied one after another, each with a uniform layer color.
+// compile() folds the chain so that it costs as few memory passes as possible.
+// - consecutive PER_CHANNEL steps become one 256 entry table per channel.
+// - tables and POINTWISE steps run in one loop per pixel.
+// - only NEIGHBORHOOD steps need the whole image of the previous step, so they start a new pass.
+public class FilterChain {
+
+    public enum Kind {
+        // out.r depends only on in.r (and so on) when the layer is uniform.
+        PER_CHANNEL,
+        // out depends only on the pixel itself, but mixes channels (or position, like NOISE).
+        POINTWISE,
+        // out depends on other pixels.
+        NEIGHBORHOOD;
+
+        public static Kind of(FilterType type) {
+            switch (type) {
+            case SEPIA:
+            case HUE:
+            case SATURATION:
+            case COLOR:
+            case VALUE:
+            case NOISE:
+                return POINTWISE;
+            case MOSAIC:
+            case BLUR2:
+                return NEIGHBORHOOD;
+            default:
+                return PER_CHANNEL;
+            }
+        }
+    }
+
+    private static class Step {
+        final FilterType type;
+        // rgb is the layer, alpha is the strength. same as a drawing pixel.
+        final int color;
+
+        Step(FilterType type, int color) {
+            this.type = type;
+            this.color = color;
+        }
+    }
+
+    private final List<Step> steps = new ArrayList<Step>();
+
+    public FilterChain add(FilterType type, int color) {
+        steps.add(new Step(type, color));
+        return this;
+    }
+
+    public int size() {
+        return steps.size();
+    }
+
+    public Compiled compile() {
+        List<Pass> passes = new ArrayList<Pass>();
+        List<Stage> stages = new ArrayList<Stage>();
+        List<Step> perChannel = new ArrayList<Step>();
+        for (Step step : steps) {
+            if ((step.color >>> 24) == 0) {
+                continue; // no effect
+            }
+            Kind kind = Kind.of(step.type);
+            if (kind == Kind.PER_CHANNEL) {
+                perChannel.add(step);
+                continue;
+            }
+            if (!perChannel.isEmpty()) {
+                stages.add(new LutStage(perChannel));
+                perChannel.clear();
+            }
+            if (kind == Kind.POINTWISE) {
+                stages.add(new FuncStage(step));
+            } else {
+                if (!stages.isEmpty()) {
+                    passes.add(new Pass(stages.toArray(new Stage[stages.size()]), null));
+                    stages.clear();
+                }
+                passes.add(new Pass(null, step));
+            }
+        }
+        if (!perChannel.isEmpty()) {
+            stages.add(new LutStage(perChannel));
+        }
+        if (!stages.isEmpty()) {
+            passes.add(new Pass(stages.toArray(new Stage[stages.size()]), null));
+        }
+        return new Compiled(passes.toArray(new Pass[passes.size()]));
+    }
+
+    private abstract static class Stage {
+        // rgb is modified in place
+        abstract void process(ProcessContext ctx, float[] rgb, float[] filter, int x, int y);
+    }
+
+    private static class FuncStage extends Stage {
+        final ProcessFunc func;
+        final float[] layer = new float[3];
+        final float alpha;
+
+        FuncStage(Step step) {
+            func = ProcessFunc.get(step.type);
+            ProcessFunc.unpack(step.color, layer);
+            alpha = (step.color >>> 24) / 255f;
+        }
+
+        @Override
+        void process(ProcessContext ctx, float[] rgb, float[] filter, int x, int y) {
+            func.process(ctx, rgb, layer, x, y, filter);
+            rgb[0] += (filter[0] - rgb[0]) * alpha;
+            rgb[1] += (filter[1] - rgb[1]) * alpha;
+            rgb[2] += (filter[2] - rgb[2]) * alpha;
+        }
+    }
+
+    // PER_CHANNEL steps evaluated once for every 8-bit value of each channel.
+    // like ScriptIntrinsicLUT in FilterScript.testLUT, but with float output and interpolation
+    // so a stage after a POINTWISE stage doesn't round to 8-bit.
+    private static class LutStage extends Stage {
+        // 257 entries, the last is a copy to avoid a bound check in interpolation.
+        final float[][] tables = new float[3][257];
+
+        LutStage(List<Step> steps) {
+            float[] in = new float[3];
+            float[] layer = new float[3];
+            float[] filter = new float[3];
+            for (int v = 0; v < 256; v++) {
+                in[0] = in[1] = in[2] = v / 255f;
+                for (Step step : steps) {
+                    float a = (step.color >>> 24) / 255f;
+                    ProcessFunc.unpack(step.color, layer);
+                    // PER_CHANNEL funcs don't use ctx and position.
+                    ProcessFunc.get(step.type).process(null, in, layer, 0, 0, filter);
+                    for (int c = 0; c < 3; c++) {
+                        in[c] += (filter[c] - in[c]) * a;
+                    }
+                }
+                for (int c = 0; c < 3; c++) {
+                    tables[c][v] = in[c];
+                }
+            }
+            for (int c = 0; c < 3; c++) {
+                tables[c][256] = tables[c][255];
+            }
+        }
+
+        @Override
+        void process(ProcessContext ctx, float[] rgb, float[] filter, int x, int y) {
+            for (int c = 0; c < 3; c++) {
+                float pos = ProcessFunc.clamp(rgb[c]) * 255f;
+                int i = (int) pos;
+                float[] table = tables[c];
+                rgb[c] = table[i] + (table[i + 1] - table[i]) * (pos - i);
+            }
+        }
+    }
+
+    // either fused stages or one NEIGHBORHOOD step
+    private static class Pass {
+        final Stage[] stages;
+        final Step neighborhood;
+
+        Pass(Stage[] stages, Step neighborhood) {
+            this.stages = stages;
+            this.neighborhood = neighborhood;
+        }
+    }
+
+    public static class Compiled {
+        private final Pass[] passes;
+
+        Compiled(Pass[] passes) {
+            this.passes = passes;
+        }
+
+        // memory passes over the image
+        public int getPassCount() {
+            return passes.length;
+        }
+
+        // Applies the chain to the input of script and writes the whole image to out.
+        public void apply(final CpuFilterScript script, int[] out) {
+            final int width = script.width;
+            int[] current = new int[script.inPixels.length];
+            System.arraycopy(script.inPixels, 0, current, 0, current.length);
+            int[] next = null;
+            for (final Pass pass : passes) {
+                if (pass.stages != null) {
+                    final int[] pixels = current;
+                    script.forEachBand(0, script.height, new CpuFilterScript.BandTask() {
+                        @Override
+                        public void run(int top, int bottom) {
+                            runStages(script, pass.stages, pixels, width, top, bottom);
+                        }
+                    });
+                } else {
+                    if (next == null) {
+                        next = new int[current.length];
+                    }
+                    int[] blur = null;
+                    SummedAreaTable table = null;
+                    if (pass.neighborhood.type == FilterType.BLUR2) {
+                        blur = new int[current.length];
+                        script.blur(current, blur, script.getBlurRadius());
+                    } else if (pass.neighborhood.type == FilterType.MOSAIC) {
+                        table = new SummedAreaTable(width, script.height);
+                        script.buildTable(current, table);
+                    }
+                    final ProcessContext shared = new ProcessContext(current, blur, table, script.getMosaicSize(),
+                            width, script.height, null);
+                    final int[] src = current;
+                    final int[] dst = next;
+                    final FuncStage stage = new FuncStage(pass.neighborhood);
+                    script.forEachBand(0, script.height, new CpuFilterScript.BandTask() {
+                        @Override
+                        public void run(int top, int bottom) {
+                            runNeighborhood(shared, stage, src, dst, width, top, bottom);
+                        }
+                    });
+                    next = current;
+                    current = dst;
+                }
+            }
+            System.arraycopy(current, 0, out, 0, current.length);
+        }
+
+        // in place, since every stage reads only its own pixel.
+        private static void runStages(CpuFilterScript script, Stage[] stages, int[] pixels, int width, int top,
+                int bottom) {
+            ProcessContext ctx = new ProcessContext(pixels, null, null, 0, width, script.height, script.getNoise());
+            float[] rgb = new float[3];
+            float[] filter = new float[3];
+            for (int y = top; y < bottom; y++) {
+                int i = y * width;
+                for (int x = 0; x < width; x++, i++) {
+                    ProcessFunc.unpack(pixels[i], rgb);
+                    for (Stage stage : stages) {
+                        stage.process(ctx, rgb, filter, x, y);
+                    }
+                    pixels[i] = ProcessFunc.pack(rgb[0], rgb[1], rgb[2]);
+                }
+            }
+        }
+
+        private static void runNeighborhood(ProcessContext shared, FuncStage stage, int[] src, int[] dst, int width,
+                int top, int bottom) {
+            ProcessContext ctx = new ProcessContext(shared.input, shared.blur, shared.table, shared.mosaicSize, width,
+                    shared.height, null);
+            float[] rgb = new float[3];
+            float[] filter = new float[3];
+            for (int y = top; y < bottom; y++) {
+                int i = y * width;
+                for (int x = 0; x < width; x++, i++) {
+                    ProcessFunc.unpack(src[i], rgb);
+                    stage.process(ctx, rgb, filter, x, y);
+                    dst[i] = ProcessFunc.pack(rgb[0], rgb[1], rgb[2]);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.easetheworld.renderscript.blendmode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.easetheworld.renderscript.blendmode.FilterScript.FilterType;
+
+// Latency and throughput of filter calls, per FilterType.
+// record is lock free(atomic counters and a log-linear histogram of nanoseconds) and doesn't allocate,
+// so it stays on the hot path. getSnapshots / toText / toJson are for dumps, e.g. to compare devices.
+//
+// per call :
+// - nanos : time of the call
+// - pixels : pixels filtered(area of the rect or of the dirty tiles)
+// - framePixels : pixels of the whole image, so pixels / framePixels is the dirty-area ratio
+// - bytesCopied : bytes copied to or from the caller's buffers
+public class FilterMetrics {
+    // 2^SUB_BITS buckets per power of 2, so a percentile is within 1/8 of the recorded value.
+    private static final int SUB_BITS = 3;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKET_COUNT = (64 - SUB_BITS) << SUB_BITS;
+
+    private static final class Entry {
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong totalNanos = new AtomicLong();
+        final AtomicLong maxNanos = new AtomicLong();
+        final AtomicLong pixels = new AtomicLong();
+        final AtomicLong framePixels = new AtomicLong();
+        final AtomicLong bytesCopied = new AtomicLong();
+    }
+
+    public static class Snapshot {
+        public final FilterType type;
+        public final long count;
+        public final long p50Nanos;
+        public final long p99Nanos;
+        public final long maxNanos;
+        public final long meanNanos;
+        public final double pixelsPerSecond;
+        public final double dirtyRatio;
+        public final long bytesCopied;
+
+        Snapshot(FilterType type, long count, long p50Nanos, long p99Nanos, long maxNanos, long meanNanos,
+                double pixelsPerSecond, double dirtyRatio, long bytesCopied) {
+            this.type = type;
+            this.count = count;
+            this.p50Nanos = p50Nanos;
+            this.p99Nanos = p99Nanos;
+            this.maxNanos = maxNanos;
+            this.meanNanos = meanNanos;
+            this.pixelsPerSecond = pixelsPerSecond;
+            this.dirtyRatio = dirtyRatio;
+            this.bytesCopied = bytesCopied;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%s count %d p50 %.3fms p99 %.3fms max %.3fms mean %.3fms %.1fMpx/s dirty %.1f%% copied %dKB",
+                    type, count, p50Nanos / 1e6, p99Nanos / 1e6, maxNanos / 1e6, meanNanos / 1e6,
+                    pixelsPerSecond / 1e6, dirtyRatio * 100, bytesCopied / 1024);
+        }
+
+        String toJson() {
+            return String.format(Locale.US,
+                    "{\"type\":\"%s\",\"count\":%d,\"p50_ns\":%d,\"p99_ns\":%d,\"max_ns\":%d,\"mean_ns\":%d,"
+                            + "\"pixels_per_second\":%.1f,\"dirty_ratio\":%.4f,\"bytes_copied\":%d}",
+                    type, count, p50Nanos, p99Nanos, maxNanos, meanNanos, pixelsPerSecond, dirtyRatio, bytesCopied);
+        }
+    }
+
+    private final Entry[] entries;
+
+    public FilterMetrics() {
+        entries = new Entry[FilterType.values().length];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = new Entry();
+        }
+    }
+
+    public void record(FilterType type, long nanos, long pixels, long framePixels, long bytesCopied) {
+        Entry e = entries[type.ordinal()];
+        nanos = Math.max(nanos, 0);
+        e.buckets.incrementAndGet(getBucket(nanos));
+        e.count.incrementAndGet();
+        e.totalNanos.addAndGet(nanos);
+        e.pixels.addAndGet(pixels);
+        e.framePixels.addAndGet(framePixels);
+        e.bytesCopied.addAndGet(bytesCopied);
+        long max = e.maxNanos.get();
+        while (nanos > max && !e.maxNanos.compareAndSet(max, nanos)) {
+            max = e.maxNanos.get();
+        }
+    }
+
+    // Not atomic with record. Calls recorded meanwhile may be half cleared.
+    public void reset() {
+        for (Entry e : entries) {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                e.buckets.set(i, 0);
+            }
+            e.count.set(0);
+            e.totalNanos.set(0);
+            e.maxNanos.set(0);
+            e.pixels.set(0);
+            e.framePixels.set(0);
+            e.bytesCopied.set(0);
+        }
+    }
+
+    public Snapshot getSnapshot(FilterType type) {
+        Entry e = entries[type.ordinal()];
+        long[] counts = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = e.buckets.get(i);
+            total += counts[i];
+        }
+        long max = e.maxNanos.get();
+        long nanos = e.totalNanos.get();
+        long pixels = e.pixels.get();
+        long framePixels = e.framePixels.get();
+        return new Snapshot(type, total, getPercentile(counts, total, 0.5, max),
+                getPercentile(counts, total, 0.99, max), max, total == 0 ? 0 : nanos / total,
+                nanos == 0 ? 0 : pixels * 1e9 / nanos, framePixels == 0 ? 0 : (double) pixels / framePixels,
+                e.bytesCopied.get());
+    }
+
+    // types which have been recorded, in the order of FilterType
+    public List<Snapshot> getSnapshots() {
+        List<Snapshot> snapshots = new ArrayList<Snapshot>();
+        for (FilterType type : FilterType.values()) {
+            if (entries[type.ordinal()].count.get() > 0) {
+                snapshots.add(getSnapshot(type));
+            }
+        }
+        return snapshots;
+    }
+
+    // one line per type
+    public String toText() {
+        StringBuilder sb = new StringBuilder();
+        for (Snapshot s : getSnapshots()) {
+            sb.append(s).append('\n');
+        }
+        return sb.toString();
+    }
+
+    // {"filters":[{"type":"NORMAL","count":..}, ..]}
+    public String toJson() {
+        StringBuilder sb = new StringBuilder("{\"filters\":[");
+        List<Snapshot> snapshots = getSnapshots();
+        for (int i = 0; i < snapshots.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(snapshots.get(i).toJson());
+        }
+        return sb.append("]}").toString();
+    }
+
+    // values below SUB_COUNT have a bucket each, then SUB_COUNT buckets per power of 2.
+    static int getBucket(long nanos) {
+        if (nanos < SUB_COUNT) {
+            return (int) nanos;
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(nanos);
+        return ((exp - SUB_BITS + 1) << SUB_BITS) | (int) ((nanos >>> (exp - SUB_BITS)) & (SUB_COUNT - 1));
+    }
+
+    // largest value of the bucket
+    static long getBucketMax(int bucket) {
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+        int shift = (bucket >> SUB_BITS) - 1;
+        long min = (long) (SUB_COUNT | (bucket & (SUB_COUNT - 1))) << shift;
+        return min + (1L << shift) - 1;
+    }
+
+    private static long getPercentile(long[] counts, long total, double percentile, long max) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(getBucketMax(i), max);
+            }
+        }
+        return max;
+    }
+}
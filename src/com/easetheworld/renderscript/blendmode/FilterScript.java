@@ -3,7 +3,6 @@ package com.easetheworld.renderscript.blendmode;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Color;
-import android.os.SystemClock;
 import android.support.v8.renderscript.Allocation;
 import android.support.v8.renderscript.Element;
 import android.support.v8.renderscript.RenderScript;
@@ -78,13 +77,47 @@ public class FilterScript {
         }
 
         final void applyRect(FilterScript script, Bitmap out, int left, int top, int right, int bottom) {
-            long t1 = SystemClock.elapsedRealtime();
+            long t1 = System.nanoTime();
             // forEachRoot returns immediately because it is asynchronous.
             // Instead copyTo is blocked until computation is done.
             forEachRoot(script, script.inAllocation, script.outAllocation, left, top, right, bottom);
             script.outAllocation.copyTo(out);
-            long t2 = SystemClock.elapsedRealtime();
-            android.util.Log.i(TAG, "mode=" + this + " time=" + (t2 - t1));
+            long t2 = System.nanoTime();
+            FilterMetrics metrics = script.metrics;
+            if (metrics != null) {
+                int w = out.getWidth();
+                int h = out.getHeight();
+                long pixels = (long) w * h;
+                if (left >= 0 || right >= 0) {
+                    pixels = (long) Math.max(0, Math.min(right, w) - Math.max(left, 0))
+                            * Math.max(0, Math.min(bottom, h) - Math.max(top, 0));
+                }
+                metrics.record(this, t2 - t1, pixels, (long) w * h, (long) w * h * 4);
+            }
+        }
+
+        // Runs the kernel on each coalesced dirty rect, then copies back once.
+        // Allocation of support library has no copy2DRangeTo, so the copy is still the whole bitmap,
+        // but it happens once per frame instead of once per touch event.
+        final void applyDirty(final FilterScript script, Bitmap out, TileCompositor compositor) {
+            long t1 = System.nanoTime();
+            final long[] pixels = new long[1];
+            int tiles = compositor.flush(new TileCompositor.RectCallback() {
+                @Override
+                public void onRect(int left, int top, int right, int bottom) {
+                    forEachRoot(script, script.inAllocation, script.outAllocation, left, top, right, bottom);
+                    pixels[0] += (long) (right - left) * (bottom - top);
+                }
+            });
+            if (tiles > 0) {
+                script.outAllocation.copyTo(out);
+            }
+            long t2 = System.nanoTime();
+            FilterMetrics metrics = script.metrics;
+            if (metrics != null && tiles > 0) {
+                long framePixels = (long) out.getWidth() * out.getHeight();
+                metrics.record(this, t2 - t1, pixels[0], framePixels, framePixels * 4);
+            }
         }
     }
 
@@ -100,6 +133,9 @@ public class FilterScript {
 
     private final RenderScript rs;
 
+    // null disables recording
+    private volatile FilterMetrics metrics = new FilterMetrics();
+
     public FilterScript(Context context, Bitmap in) {
         rs = RenderScript.create(context);
         rs.setMessageHandler(new RSMessageHandler() {
@@ -150,6 +186,15 @@ public class FilterScript {
         return rs;
     }
 
+    public FilterMetrics getMetrics() {
+        return metrics;
+    }
+
+    // e.g. one FilterMetrics shared with a CpuFilterScript to compare them.
+    public void setMetrics(FilterMetrics metrics) {
+        this.metrics = metrics;
+    }
+
     public void setInputBitmap(Bitmap bitmap) {
         inAllocation.copyFrom(bitmap);
     }
@@ -162,6 +207,12 @@ public class FilterScript {
         drawingAllocation.copyFrom(bitmap);
     }
 
+    // The result so far, when it was changed outside of this script(e.g. by undo).
+    // applyDirty copies the whole out allocation back, so it must match out.
+    public void setOutputBitmap(Bitmap bitmap) {
+        outAllocation.copyFrom(bitmap);
+    }
+
     public void apply(FilterType type, Bitmap out) {
         type.applyRect(this, out, -1, -1, -1, -1);
     }
@@ -171,6 +222,10 @@ public class FilterScript {
         type.applyRect(this, out, left, top, right, bottom);
     }
 
+    public void applyDirty(FilterType type, Bitmap out, TileCompositor compositor) {
+        type.applyDirty(this, out, compositor);
+    }
+
     public void setBlurRadius(float radius, Bitmap out) {
         blurScript.setRadius(radius);
         FilterType.BLUR2.applyRect(this, out, -1, -1, -1, -1);
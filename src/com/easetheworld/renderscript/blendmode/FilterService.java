@@ -0,0 +1,328 @@
+package com.easetheworld.renderscript.blendmode;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Filters images of concurrent callers(e.g. requests of FilterServer) on one TileScheduler.
+// - micro batching : a dispatcher thread takes the requests which arrive within batchWindow(up to
+//   maxBatch) and runs the small images of them as one job, an image per tile, so many small
+//   requests fill the workers at once instead of each being cut into tiles of its own.
+//   Large images run one after another, each by tiles over all workers.
+// - cache : decoded inputs by hash of their encoded bytes, and results by that hash and the preset,
+//   in one LRU of cacheBytes. A repeated request skips both decode and filter.
+// - admission : a request is rejected with RejectedExecutionException when the oldest waiting request
+//   has waited over queueBudget, or maxPending requests wait, so under overload the latency of
+//   admitted requests stays near the budget instead of growing with the queue.
+public class FilterService {
+    // larger images are tiled by themselves instead of being a tile of a batch.
+    public static final int BATCH_PIXELS = 512 * 512;
+
+    public static class Stats {
+        public final long requests;
+        public final long resultHits;
+        public final long inputHits;
+        public final long rejected;
+        public final long batches;
+        public final long batchedRequests;
+        public final long maxQueueNanos;
+        public final long cacheBytes;
+
+        Stats(long requests, long resultHits, long inputHits, long rejected, long batches, long batchedRequests,
+                long maxQueueNanos, long cacheBytes) {
+            this.requests = requests;
+            this.resultHits = resultHits;
+            this.inputHits = inputHits;
+            this.rejected = rejected;
+            this.batches = batches;
+            this.batchedRequests = batchedRequests;
+            this.maxQueueNanos = maxQueueNanos;
+            this.cacheBytes = cacheBytes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "requests %d result hits %d input hits %d rejected %d batches %d %.1f/batch"
+                            + " max queue %.1fms cache %dKB",
+                    requests, resultHits, inputHits, rejected, batches,
+                    batches == 0 ? 0 : (double) batchedRequests / batches, maxQueueNanos / 1e6, cacheBytes / 1024);
+        }
+    }
+
+    private static class Request {
+        final ImageCodec.Image input;
+        final BatchPreset preset;
+        final String resultKey;
+        final long enqueueNanos;
+        final CountDownLatch done = new CountDownLatch(1);
+        // set before done
+        ImageCodec.Image result;
+        RuntimeException failure;
+
+        Request(ImageCodec.Image input, BatchPreset preset, String resultKey, long enqueueNanos) {
+            this.input = input;
+            this.preset = preset;
+            this.resultKey = resultKey;
+            this.enqueueNanos = enqueueNanos;
+        }
+
+        void finish(ImageCodec.Image result, RuntimeException failure) {
+            this.result = result;
+            this.failure = failure;
+            done.countDown();
+        }
+    }
+
+    // LRU by bytes of pixels. Images in it are shared, so they are never modified.
+    private static class ImageCache {
+        private final long maxBytes;
+        private final LinkedHashMap<String, ImageCodec.Image> map =
+                new LinkedHashMap<String, ImageCodec.Image>(16, 0.75f, true);
+        private long bytes;
+
+        ImageCache(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized ImageCodec.Image get(String key) {
+            return map.get(key);
+        }
+
+        synchronized void put(String key, ImageCodec.Image image) {
+            long size = getBytes(image);
+            if (size > maxBytes) {
+                return;
+            }
+            ImageCodec.Image old = map.put(key, image);
+            if (old != null) {
+                bytes -= getBytes(old);
+            }
+            bytes += size;
+            // least recently used first. image is the last, so it stays.
+            Iterator<ImageCodec.Image> it = map.values().iterator();
+            while (bytes > maxBytes) {
+                bytes -= getBytes(it.next());
+                it.remove();
+            }
+        }
+
+        synchronized long getBytes() {
+            return bytes;
+        }
+
+        private static long getBytes(ImageCodec.Image image) {
+            return image.width * image.height * 4L;
+        }
+    }
+
+    private final ImageCodec codec;
+    private final TileScheduler scheduler;
+    // runs the tiles of a script on the thread of its batch tile.
+    private final TileScheduler inline = new TileScheduler(null, 1);
+    private final ImageCache cache;
+    private final long queueBudgetNanos;
+    private final int maxBatch;
+    private final long batchWindowNanos;
+
+    private final BlockingQueue<Request> pending;
+    private final Thread dispatcher;
+    private volatile boolean closed;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong resultHits = new AtomicLong();
+    private final AtomicLong inputHits = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong batchedRequests = new AtomicLong();
+    private final AtomicLong maxQueueNanos = new AtomicLong();
+
+    // batchWindowMillis 0 batches only requests which already wait, so a lone request isn't delayed.
+    public FilterService(ImageCodec codec, TileScheduler scheduler, long cacheBytes, long queueBudgetMillis,
+            int maxPending, int maxBatch, long batchWindowMillis) {
+        this.codec = codec;
+        this.scheduler = scheduler;
+        cache = new ImageCache(cacheBytes);
+        queueBudgetNanos = TimeUnit.MILLISECONDS.toNanos(queueBudgetMillis);
+        pending = new LinkedBlockingQueue<Request>(Math.max(1, maxPending));
+        this.maxBatch = Math.max(1, maxBatch);
+        batchWindowNanos = TimeUnit.MILLISECONDS.toNanos(batchWindowMillis);
+        dispatcher = new Thread("FilterService") {
+            @Override
+            public void run() {
+                dispatch();
+            }
+        };
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    // Filters encoded image data by spec of BatchPreset. Blocks until done.
+    // The result may be shared with other callers and the cache, so it must not be modified.
+    // Throws RejectedExecutionException when overloaded or shut down, IllegalArgumentException for a bad spec
+    // and IOException for data codec can't decode.
+    public ImageCodec.Image filter(byte[] data, String spec) throws IOException {
+        requests.incrementAndGet();
+        BatchPreset preset = BatchPreset.parse(spec);
+        String inputKey = hash(data);
+        String resultKey = inputKey + " " + spec;
+        ImageCodec.Image result = cache.get(resultKey);
+        if (result != null) {
+            resultHits.incrementAndGet();
+            return result;
+        }
+        // before decode, which would be wasted on a rejected request.
+        Request oldest = pending.peek();
+        if (oldest != null && System.nanoTime() - oldest.enqueueNanos > queueBudgetNanos) {
+            throw reject("queue latency over " + TimeUnit.NANOSECONDS.toMillis(queueBudgetNanos) + "ms");
+        }
+        ImageCodec.Image input = cache.get(inputKey);
+        if (input != null) {
+            inputHits.incrementAndGet();
+        } else {
+            input = codec.decode(new ByteArrayInputStream(data));
+            cache.put(inputKey, input);
+        }
+
+        Request request = new Request(input, preset, resultKey, System.nanoTime());
+        if (closed || !pending.offer(request)) {
+            throw reject(closed ? "shut down" : "queue is full");
+        }
+        // the dispatcher may have failed the pending ones before this was added.
+        if (closed && pending.remove(request)) {
+            throw reject("shut down");
+        }
+        try {
+            request.done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while filtering", e);
+        }
+        if (request.failure != null) {
+            throw request.failure;
+        }
+        return request.result;
+    }
+
+    private RejectedExecutionException reject(String reason) {
+        rejected.incrementAndGet();
+        return new RejectedExecutionException(reason);
+    }
+
+    // Waiting requests are rejected. Running ones are finished.
+    public void shutdown() {
+        closed = true;
+        dispatcher.interrupt();
+    }
+
+    public Stats getStats() {
+        return new Stats(requests.get(), resultHits.get(), inputHits.get(), rejected.get(), batches.get(),
+                batchedRequests.get(), maxQueueNanos.get(), cache.getBytes());
+    }
+
+    private void dispatch() {
+        List<Request> batch = new ArrayList<Request>();
+        try {
+            while (!closed) {
+                batch.add(pending.take());
+                long deadline = System.nanoTime() + batchWindowNanos;
+                while (batch.size() < maxBatch) {
+                    Request r = pending.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (r == null) {
+                        break;
+                    }
+                    batch.add(r);
+                }
+                run(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            // shutdown
+        }
+        RejectedExecutionException e = new RejectedExecutionException("shut down");
+        for (Request r : batch) {
+            r.finish(null, e);
+        }
+        for (Request r = pending.poll(); r != null; r = pending.poll()) {
+            r.finish(null, e);
+        }
+    }
+
+    private void run(List<Request> batch) {
+        long now = System.nanoTime();
+        long wait = now - batch.get(0).enqueueNanos;
+        long max = maxQueueNanos.get();
+        while (wait > max && !maxQueueNanos.compareAndSet(max, wait)) {
+            max = maxQueueNanos.get();
+        }
+        batches.incrementAndGet();
+        batchedRequests.addAndGet(batch.size());
+
+        final List<Request> small = new ArrayList<Request>();
+        for (Request r : batch) {
+            if (r.input.width * r.input.height <= BATCH_PIXELS) {
+                small.add(r);
+            }
+        }
+        if (small.size() == 1) {
+            process(small.get(0), scheduler);
+        } else if (small.size() > 1) {
+            scheduler.run(0, 0, small.size(), 1, 1, 1, TileScheduler.PRIORITY_NORMAL, new TileScheduler.TileTask() {
+                @Override
+                public void run(int left, int top, int right, int bottom) {
+                    for (int i = left; i < right; i++) {
+                        process(small.get(i), inline);
+                    }
+                }
+            });
+        }
+        for (Request r : batch) {
+            if (r.input.width * r.input.height > BATCH_PIXELS) {
+                process(r, scheduler);
+            }
+        }
+    }
+
+    // failures go to the caller of the request, so the rest of the batch goes on.
+    private void process(Request r, TileScheduler s) {
+        try {
+            ImageCodec.Image in = r.input;
+            int[] pixels = new int[in.width * in.height];
+            System.arraycopy(in.pixels, 0, pixels, 0, pixels.length);
+            CpuFilterScript script = new CpuFilterScript(pixels, in.width, in.height, s);
+            r.preset.apply(script, pixels);
+            ImageCodec.Image result = new ImageCodec.Image(in.width, in.height, pixels);
+            cache.put(r.resultKey, result);
+            r.finish(result, null);
+        } catch (Throwable e) {
+            r.finish(null, e instanceof RuntimeException ? (RuntimeException) e : new IllegalStateException(e));
+        }
+    }
+
+    private static String hash(byte[] data) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] h = digest.digest(data);
+        StringBuilder sb = new StringBuilder(h.length * 2);
+        for (byte b : h) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+}
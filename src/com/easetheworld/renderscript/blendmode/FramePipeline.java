@@ -0,0 +1,223 @@
+package com.easetheworld.renderscript.blendmode;
+
+// Hands frames from a producer(e.g. camera callbacks on the ui thread) to one worker thread.
+// Frame buffers are allocated once and reused, the producer never waits for the worker.
+// When the worker is behind and no buffer is free, the oldest waiting frame is dropped
+// so that the worker always gets the newest frames.
+//
+// producer : obtainFrame() -> fill pixels -> submit(frame)
+// worker   : takes the oldest submitted frame -> Processor.process -> buffer is free again
+public class FramePipeline {
+    public static final int DEFAULT_CAPACITY = 3;
+
+    public static class Frame {
+        public final int width;
+        public final int height;
+        // null if the pipeline has no pixels, e.g. frames are in Bitmaps of the producer.
+        public final int[] pixels;
+        // System.nanoTime() at submit, or given by the producer(e.g. capture time).
+        public long timestampNs;
+        public long sequence;
+
+        Frame(int width, int height, boolean withPixels) {
+            this.width = width;
+            this.height = height;
+            pixels = withPixels ? new int[width * height] : null;
+        }
+    }
+
+    public interface Processor {
+        // called on the worker thread. frame must not be used after this returns.
+        void process(Frame frame);
+    }
+
+    public static class Stats {
+        public final long submitted;
+        public final long processed;
+        public final long dropped;
+        // latency is from timestampNs to the end of process.
+        public final long lastLatencyNs;
+        public final long maxLatencyNs;
+        public final long averageLatencyNs;
+
+        Stats(long submitted, long processed, long dropped, long lastLatencyNs, long maxLatencyNs,
+                long averageLatencyNs) {
+            this.submitted = submitted;
+            this.processed = processed;
+            this.dropped = dropped;
+            this.lastLatencyNs = lastLatencyNs;
+            this.maxLatencyNs = maxLatencyNs;
+            this.averageLatencyNs = averageLatencyNs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("submitted %d processed %d dropped %d latency last %.2fms avg %.2fms max %.2fms",
+                    submitted, processed, dropped, lastLatencyNs / 1e6, averageLatencyNs / 1e6, maxLatencyNs / 1e6);
+        }
+    }
+
+    private final Processor processor;
+
+    // free buffers, as a stack
+    private final Frame[] free;
+    private int freeCount;
+    // submitted buffers, as a ring. oldest is at readyHead.
+    private final Frame[] ready;
+    private int readyHead;
+    private int readyCount;
+
+    private long sequence;
+    private long submitted;
+    private long processed;
+    private long dropped;
+    private long lastLatencyNs;
+    private long maxLatencyNs;
+    private long totalLatencyNs;
+
+    private Thread worker;
+    private boolean running;
+
+    // capacity is the number of buffers. with 3, the worker and the producer can hold one each
+    // and one frame can wait. without pixels, the producer keeps the image of each frame itself.
+    public FramePipeline(int width, int height, int capacity, boolean withPixels, Processor processor) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive : " + capacity);
+        }
+        this.processor = processor;
+        free = new Frame[capacity];
+        ready = new Frame[capacity];
+        for (int i = 0; i < capacity; i++) {
+            free[i] = new Frame(width, height, withPixels);
+        }
+        freeCount = capacity;
+    }
+
+    public FramePipeline(int width, int height, int capacity, Processor processor) {
+        this(width, height, capacity, true, processor);
+    }
+
+    public FramePipeline(int width, int height, Processor processor) {
+        this(width, height, DEFAULT_CAPACITY, true, processor);
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        worker = new Thread("FramePipeline") {
+            @Override
+            public void run() {
+                loop();
+            }
+        };
+        worker.start();
+    }
+
+    // Stops the worker after the frame being processed. waiting frames are discarded.
+    public void stop() {
+        Thread t;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            while (readyCount > 0) {
+                free[freeCount++] = pollReady();
+            }
+            notifyAll();
+            t = worker;
+            worker = null;
+        }
+        if (t != Thread.currentThread()) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // Returns a buffer to fill. If none is free, the oldest waiting frame is dropped and reused.
+    // null only if every buffer is held by the worker and the producer.
+    public synchronized Frame obtainFrame() {
+        if (freeCount > 0) {
+            return free[--freeCount];
+        }
+        if (readyCount > 0) {
+            dropped++;
+            Frame frame = pollReady();
+            frame.timestampNs = 0;
+            return frame;
+        }
+        dropped++;
+        return null;
+    }
+
+    // Gives a frame filled by the producer to the worker. timestampNs is set to now if it is 0.
+    public synchronized void submit(Frame frame) {
+        if (frame.timestampNs == 0) {
+            frame.timestampNs = System.nanoTime();
+        }
+        frame.sequence = sequence++;
+        submitted++;
+        if (!running) {
+            recycle(frame);
+            return;
+        }
+        ready[(readyHead + readyCount) % ready.length] = frame;
+        readyCount++;
+        notifyAll();
+    }
+
+    // Gives back a frame obtained but not submitted.
+    public synchronized void recycle(Frame frame) {
+        frame.timestampNs = 0;
+        free[freeCount++] = frame;
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(submitted, processed, dropped, lastLatencyNs, maxLatencyNs,
+                processed == 0 ? 0 : totalLatencyNs / processed);
+    }
+
+    private Frame pollReady() {
+        Frame frame = ready[readyHead];
+        ready[readyHead] = null;
+        readyHead = (readyHead + 1) % ready.length;
+        readyCount--;
+        return frame;
+    }
+
+    private void loop() {
+        while (true) {
+            Frame frame;
+            synchronized (this) {
+                while (running && readyCount == 0) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        running = false;
+                    }
+                }
+                if (!running) {
+                    return;
+                }
+                frame = pollReady();
+            }
+            try {
+                processor.process(frame);
+            } finally {
+                long latency = System.nanoTime() - frame.timestampNs;
+                synchronized (this) {
+                    processed++;
+                    lastLatencyNs = latency;
+                    maxLatencyNs = Math.max(maxLatencyNs, latency);
+                    totalLatencyNs += latency;
+                    recycle(frame);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.easetheworld.renderscript.blendmode;
+
+// Something that fills frames of a FramePipeline, like the camera preview of FilteredCameraView.
+// start is called once, and the source submits frames until stop.
+public interface FrameSource {
+    void start(FramePipeline pipeline);
+
+    void stop();
+}
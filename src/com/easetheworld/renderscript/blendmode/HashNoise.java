@@ -0,0 +1,123 @@
+package com.easetheworld.renderscript.blendmode;
+
+// Noise of NOISE filter, computed from (seed, x, y, channel) by a hash instead of a random generator.
+// processNoise calls rsRand 3 times per pixel, so the image is different every time and
+// threads share the generator state.
+// Here every pixel is a pure function of its position, so bands in any order(or a dirty rect alone)
+// give exactly the same result as the full frame, and threads share nothing.
+// The hash is the round and avalanche of xxHash32.
+public final class HashNoise {
+    // same as noiseIntensity in filter.rs
+    public static final float DEFAULT_INTENSITY = 0.15f;
+
+    public static final HashNoise DEFAULT = new HashNoise(0, 1, false, DEFAULT_INTENSITY);
+
+    private static final int PRIME1 = 0x9E3779B1;
+    private static final int PRIME2 = 0x85EBCA77;
+    private static final int PRIME3 = 0xC2B2AE3D;
+    private static final int PRIME5 = 0x165667B1;
+
+    private static final float INV_2_23 = 1f / (1 << 23);
+
+    public final int seed;
+    // pixels per grain. a grain x grain block has the same noise.
+    public final int grainSize;
+    // true : same noise on r, g, b(only lightness changes). false : each channel has its own noise.
+    public final boolean monochrome;
+    public final float intensity;
+    // added to x, y. a part of a big image(e.g. a strip of StripImage) gets the noise of its position.
+    private final int originX;
+    private final int originY;
+
+    public HashNoise(int seed, int grainSize, boolean monochrome, float intensity) {
+        this(seed, grainSize, monochrome, intensity, 0, 0);
+    }
+
+    private HashNoise(int seed, int grainSize, boolean monochrome, float intensity, int originX, int originY) {
+        if (grainSize < 1) {
+            throw new IllegalArgumentException("grainSize must be positive : " + grainSize);
+        }
+        this.seed = seed;
+        this.grainSize = grainSize;
+        this.monochrome = monochrome;
+        this.intensity = intensity;
+        this.originX = originX;
+        this.originY = originY;
+    }
+
+    public HashNoise withOrigin(int x, int y) {
+        return new HashNoise(seed, grainSize, monochrome, intensity, x, y);
+    }
+
+    public HashNoise withSeed(int seed) {
+        return new HashNoise(seed, grainSize, monochrome, intensity, originX, originY);
+    }
+
+    public HashNoise withGrainSize(int grainSize) {
+        return new HashNoise(seed, grainSize, monochrome, intensity, originX, originY);
+    }
+
+    public HashNoise withMonochrome(boolean monochrome) {
+        return new HashNoise(seed, grainSize, monochrome, intensity, originX, originY);
+    }
+
+    public HashNoise withIntensity(float intensity) {
+        return new HashNoise(seed, grainSize, monochrome, intensity, originX, originY);
+    }
+
+    // -intensity ~ intensity, same distribution as rsRand(-noiseIntensity, noiseIntensity).
+    public float get(int x, int y, int channel) {
+        x += originX;
+        y += originY;
+        if (grainSize > 1) {
+            x /= grainSize;
+            y /= grainSize;
+        }
+        int h = hash(seed, x, y, monochrome ? 0 : channel);
+        // top 24 bits to -1 ~ 1
+        return (h >> 8) * INV_2_23 * intensity;
+    }
+
+    // out[c] = clamp(in[c] + noise)
+    void apply(float[] in, int x, int y, float[] out) {
+        x += originX;
+        y += originY;
+        if (grainSize > 1) {
+            x /= grainSize;
+            y /= grainSize;
+        }
+        // (seed, x, y) is mixed once for all channels.
+        int position = round(round(seed + PRIME5, x), y);
+        float scale = INV_2_23 * intensity;
+        if (monochrome) {
+            float n = (avalanche(round(position, 0)) >> 8) * scale;
+            for (int i = 0; i < 3; i++) {
+                out[i] = ProcessFunc.clamp(in[i] + n);
+            }
+        } else {
+            for (int i = 0; i < 3; i++) {
+                float n = (avalanche(round(position, i)) >> 8) * scale;
+                out[i] = ProcessFunc.clamp(in[i] + n);
+            }
+        }
+    }
+
+    static int hash(int seed, int x, int y, int channel) {
+        return avalanche(round(round(round(seed + PRIME5, x), y), channel));
+    }
+
+    private static int avalanche(int h) {
+        h ^= h >>> 15;
+        h *= PRIME2;
+        h ^= h >>> 13;
+        h *= PRIME3;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static int round(int h, int v) {
+        h += v * PRIME3;
+        h = Integer.rotateLeft(h, 17) * PRIME1;
+        return h;
+    }
+}
@@ -0,0 +1,41 @@
+package com.easetheworld.renderscript.blendmode;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+// Reads and writes images for BatchPipeline(files) and FilterService(request bodies).
+// Implementations are called from several threads at once, so they must not keep state per call.
+// RawImageCodec is pure java. ImageIOCodec(tools/src, javax.imageio) reads and writes jpeg and png
+// on a desktop jvm, and an android app could use BitmapFactory and Bitmap.compress.
+public interface ImageCodec {
+
+    // pixels are ARGB, width * height, like Bitmap.getPixels.
+    public static class Image {
+        public final int width;
+        public final int height;
+        public final int[] pixels;
+
+        public Image(int width, int height, int[] pixels) {
+            if (pixels.length < width * height) {
+                throw new IllegalArgumentException("pixels are smaller than " + width + "x" + height);
+            }
+            this.width = width;
+            this.height = height;
+            this.pixels = pixels;
+        }
+    }
+
+    // whether file is an input of this codec, e.g. by extension
+    boolean accepts(File file);
+
+    // in is not closed.
+    Image decode(InputStream in) throws IOException;
+
+    // out is not closed.
+    void encode(Image image, OutputStream out) throws IOException;
+
+    // of output files, without dot
+    String getExtension();
+}
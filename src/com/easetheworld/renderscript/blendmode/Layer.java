@@ -0,0 +1,29 @@
+package com.easetheworld.renderscript.blendmode;
+
+import com.easetheworld.renderscript.blendmode.FilterScript.FilterType;
+
+// One layer of CpuFilterScript.applyLayers.
+// pixels are like the drawing bitmap: rgb is the layer color(or filter parameter) and alpha is the mask.
+public class Layer {
+    public final FilterType type;
+    public final int[] pixels;
+    private volatile float opacity;
+
+    public Layer(FilterType type, int[] pixels, float opacity) {
+        this.type = type;
+        this.pixels = pixels;
+        setOpacity(opacity);
+    }
+
+    public Layer(FilterType type, int[] pixels) {
+        this(type, pixels, 1f);
+    }
+
+    public float getOpacity() {
+        return opacity;
+    }
+
+    public void setOpacity(float opacity) {
+        this.opacity = Math.min(Math.max(opacity, 0f), 1f);
+    }
+}
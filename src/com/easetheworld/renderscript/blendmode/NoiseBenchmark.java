@@ -0,0 +1,133 @@
+package com.easetheworld.renderscript.blendmode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+// Compares HashNoise with generator based noise, on all bands of a CpuFilterScript.
+// - "Random shared" is like rsRand : one generator state for all threads.
+// - "Random per band" was the NOISE of CpuFilterScript before HashNoise.
+// Only the noise itself is measured(in + noise, clamped), not the blending.
+public class NoiseBenchmark {
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASURE_ITERATIONS = 5;
+
+    public static class Result {
+        public final String name;
+        // median of MEASURE_ITERATIONS
+        public final double nsPerPixel;
+
+        Result(String name, double nsPerPixel) {
+            this.name = name;
+            this.nsPerPixel = nsPerPixel;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-40s %8.2f ns/pixel", name, nsPerPixel);
+        }
+    }
+
+    private abstract static class Case {
+        final String name;
+
+        Case(String name) {
+            this.name = name;
+        }
+
+        abstract void run(int[] in, int[] out, int width, int top, int bottom);
+    }
+
+    private final CpuFilterScript script;
+
+    public NoiseBenchmark(CpuFilterScript script) {
+        this.script = script;
+    }
+
+    public List<Result> run() {
+        List<Result> results = new ArrayList<Result>();
+        int[] out = new int[script.inPixels.length];
+        for (Case c : createCases()) {
+            results.add(measure(c, out));
+        }
+        return results;
+    }
+
+    private Result measure(final Case c, final int[] out) {
+        final int[] in = script.inPixels;
+        final int width = script.width;
+        CpuFilterScript.BandTask task = new CpuFilterScript.BandTask() {
+            @Override
+            public void run(int top, int bottom) {
+                c.run(in, out, width, top, bottom);
+            }
+        };
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            script.forEachBand(0, script.height, task);
+        }
+        long[] times = new long[MEASURE_ITERATIONS];
+        for (int i = 0; i < MEASURE_ITERATIONS; i++) {
+            long t1 = System.nanoTime();
+            script.forEachBand(0, script.height, task);
+            times[i] = System.nanoTime() - t1;
+        }
+        Arrays.sort(times);
+        return new Result(c.name, (double) times[MEASURE_ITERATIONS / 2] / in.length);
+    }
+
+    private List<Case> createCases() {
+        List<Case> cases = new ArrayList<Case>();
+        final Random shared = new Random();
+        cases.add(new Case("Random shared") {
+            @Override
+            void run(int[] in, int[] out, int width, int top, int bottom) {
+                randomNoise(shared, in, out, width, top, bottom);
+            }
+        });
+        cases.add(new Case("Random per band") {
+            @Override
+            void run(int[] in, int[] out, int width, int top, int bottom) {
+                randomNoise(new Random(), in, out, width, top, bottom);
+            }
+        });
+        HashNoise[] noises = new HashNoise[] { HashNoise.DEFAULT, HashNoise.DEFAULT.withMonochrome(true),
+                HashNoise.DEFAULT.withGrainSize(4) };
+        String[] names = new String[] { "HashNoise", "HashNoise monochrome", "HashNoise grain 4" };
+        for (int i = 0; i < noises.length; i++) {
+            final HashNoise noise = noises[i];
+            cases.add(new Case(names[i]) {
+                @Override
+                void run(int[] in, int[] out, int width, int top, int bottom) {
+                    float[] rgb = new float[3];
+                    float[] dst = new float[3];
+                    for (int y = top; y < bottom; y++) {
+                        int p = y * width;
+                        for (int x = 0; x < width; x++, p++) {
+                            ProcessFunc.unpack(in[p], rgb);
+                            noise.apply(rgb, x, y, dst);
+                            out[p] = ProcessFunc.pack(dst[0], dst[1], dst[2]);
+                        }
+                    }
+                }
+            });
+        }
+        return cases;
+    }
+
+    private static void randomNoise(Random random, int[] in, int[] out, int width, int top, int bottom) {
+        float[] rgb = new float[3];
+        float[] dst = new float[3];
+        for (int y = top; y < bottom; y++) {
+            int p = y * width;
+            for (int x = 0; x < width; x++, p++) {
+                ProcessFunc.unpack(in[p], rgb);
+                for (int c = 0; c < 3; c++) {
+                    float n = (random.nextFloat() * 2f - 1f) * HashNoise.DEFAULT_INTENSITY;
+                    dst[c] = ProcessFunc.clamp(rgb[c] + n);
+                }
+                out[p] = ProcessFunc.pack(dst[0], dst[1], dst[2]);
+            }
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.easetheworld.renderscript.blendmode;
+
+// Per-band state handed to ProcessFunc. One instance is used by one thread only,
+// so the scratch arrays can be reused for every pixel of the band.
+final class ProcessContext {
+    // same role as inputAllocation and blurAllocation in filter.rs
+    final int[] input;
+    final int[] blur;
+    // for MOSAIC. cells are mosaicSize x mosaicSize averages of input.
+    final SummedAreaTable table;
+    final int mosaicSize;
+    final int width;
+    final int height;
+
+    // for NOISE
+    final HashNoise noise;
+
+    final float[] inHsv = new float[3];
+    // precomputed layer of UniformLayerBlend
+    final float[] layerData = new float[UniformLayerBlend.DATA_LENGTH];
+
+    ProcessContext(int[] input, int[] blur, SummedAreaTable table, int mosaicSize, int width, int height,
+            HashNoise noise) {
+        this.input = input;
+        this.blur = blur;
+        this.table = table;
+        this.mosaicSize = mosaicSize;
+        this.width = width;
+        this.height = height;
+        this.noise = noise;
+    }
+}
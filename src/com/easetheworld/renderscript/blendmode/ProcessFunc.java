@@ -0,0 +1,329 @@
+package com.easetheworld.renderscript.blendmode;
+
+import com.easetheworld.renderscript.blendmode.FilterScript.FilterType;
+
+// Java port of PROCESS_FUNC_TABLE in filter.rs.
+// order must be same as FilterScript.FilterType
+// in, layer and out are rgb triples of 0~1. out never aliases in or layer.
+enum ProcessFunc {
+    NORMAL {
+        @Override
+        void process(ProcessContext ctx, float[] in, float[] layer, int x, int y, float[] out) {
+            out[0] = layer[0];
+            out[1] = layer[1];
+            out[2] = layer[2];
+        }
+    },
+    ERASER {
+        @Override
+        void process(ProcessContext ctx, float[] in, float[] layer, int x, int y, float[] out) {
+            out[0] = in[0];
+            out[1] = in[1];
+            out[2] = in[2];
+        }
+    },
+
+    // https://git.gnome.org/browse/gimp/tree/app/operations/gimpoperationlightenonlymode.c
+    LIGHTEN_ONLY {
+        @Override
+        void process(ProcessContext ctx, float[] in, float[] layer, int x, int y, float[] out) {
+            for (int i = 0; i < 3; i++) {
+                out[i] = Math.max(in[i], layer[i]);
+            }
+        }
+    },
+    // https://git.gnome.org/browse/gimp/tree/app/operations/gimpoperationscreenmode.c
+    SCREEN {
+        @Override
+        void process(ProcessContext ctx, float[] in, float[] layer, int x, int y, float[] out) {
+            for (int i = 0; i < 3; i++) {
+                out[i] = 1f - (1f - in[i]) * (1f - layer[i]);
+            }
+        }
+    },
+    // https://git.gnome.org/browse/gimp/tree/app/operations/gimpoperationdodgemode.c
+    DODGE {
+        @Override
+        void process(ProcessContext ctx, float[] in, float[] layer, int x, int y, float[] out) {
+            for (int i = 0; i < 3; i++) {
+                out[i] = fmin(in[i] / (1f - layer[i]), 1f);
+            }
+        }
+    },
+    // https://git.gnome.org/browse/gimp/tree/app/operations/gimpoperationadditionmode.c
+    ADDITION {
+        @Override
+        void process(ProcessContext ctx, float[] in, float[] layer, int x, int y, float[] out) {
+            for (int i = 0; i < 3; i++) {
+                out[i] = Math.min(in[i] + layer[i], 1f);
+            }
+        }
+    },
+
+    // https://git.gnome.org/browse/gimp/tree/app/operations/gimpoperationdarkenonlymode.c
+    DARKEN_ONLY {
+        @Override
+        void process(ProcessContext ctx, float[] in, float[] layer, int x, int y, float[] out) {
+            for (int i = 0; i < 3; i++) {
+                out[i] = Math.min(in[i], layer[i]);
+            }
+        }
+    },
+    // https://git.gnome.org/browse/gimp/tree/app/operations/gimpoperationmultiplymode.c
+    MULTIPLY {
+        @Override
+        void process(ProcessContext ctx, float[] in, float[] layer, int x, int y, float[] out) {
+            for (int i = 0; i < 3; i++) {
+                out[i] = in[i] * layer[i];
+            }
+        }
+    },
+    // https://git.gnome.org/browse/gimp/tree/app/operations/gimpoperationburnmode.c
+    BURN {
+        @Override
+        void process(ProcessContext ctx, float[] in, float[] layer, int x, int y, float[] out) {
+            for (int i = 0; i < 3; i++) {
+                out[i] = clamp(1f - (1f - in[i]) / layer[i]);
+            }
+        }
+    },
+
+    // https://git.gnome.org/browse/gimp/tree/app/operations/gimpoperationoverlaymode.c
+    OVERLAY {
+        @Override
+        void process(ProcessContext ctx, float[] in, float[] layer, int x, int y, float[] out) {
+            for (int i = 0; i < 3; i++) {
+                out[i] = Math.min(in[i] * (in[i] + (2f * layer[i]) * (1f - in[i])), 1f);
+            }
+        }
+    },
+    // https://git.gnome.org/browse/gimp/tree/app/operations/gimpoperationsoftlightmode.c
+    SOFT_LIGHT {
+        @Override
+        void process(ProcessContext ctx, float[] in, float[] layer, int x, int y, float[] out) {
+            for (int i = 0; i < 3; i++) {
+                float multiply = in[i] * layer[i];
+                float screen = 1f - (1f - in[i]) * (1f - layer[i]);
+                out[i] = (1f - in[i]) * multiply + in[i] * screen;
+            }
+        }
+    },
+    // https://git.gnome.org/browse/gimp/tree/app/operations/gimpoperationhardlightmode.c
+    HARD_LIGHT {
+        @Override
+        void process(ProcessContext ctx, float[] in, float[] layer, int x, int y, float[] out) {
+            for (int i = 0; i < 3; i++) {
+                float comp;
+                if (layer[i] > 0.5f) {
+                    comp = (1f - in[i]) * (1f - (layer[i] - 0.5f) * 2f);
+                    comp = Math.min(1f - comp, 1f);
+                } else {
+                    comp = in[i] * (layer[i] * 2f);
+                    comp = Math.min(comp, 1f);
+                }
+                out[i] = comp;
+            }
+        }
+    },
+
+    // https://git.gnome.org/browse/gimp/tree/app/operations/gimpoperationdifferencemode.c
+    DIFFERENCE {
+        @Override
+        void process(ProcessContext ctx, float[] in, float[] layer, int x, int y, float[] out) {
+            for (int i = 0; i < 3; i++) {
+                out[i] = Math.abs(in[i] - layer[i]);
+            }
+        }
+    },
+    // https://git.gnome.org/browse/gimp/tree/app/operations/gimpoperationsubtractmode.c
+    SUBTRACT {
+        @Override
+        void process(ProcessContext ctx, float[] in, float[] layer, int x, int y, float[] out) {
+            for (int i = 0; i < 3; i++) {
+                out[i] = Math.max(0f, in[i] - layer[i]);
+            }
+        }
+    },
+    // https://git.gnome.org/browse/gimp/tree/app/operations/gimpoperationgrainextractmode.c
+    GRAIN_EXTRACT {
+        @Override
+        void process(ProcessContext ctx, float[] in, float[] layer, int x, int y, float[] out) {
+            for (int i = 0; i < 3; i++) {
+                out[i] = clamp(in[i] - layer[i] + 0.5f);
+            }
+        }
+    },
+    // https://git.gnome.org/browse/gimp/tree/app/operations/gimpoperationgrainmergemode.c
+    GRAIN_MERGE {
+        @Override
+        void process(ProcessContext ctx, float[] in, float[] layer, int x, int y, float[] out) {
+            for (int i = 0; i < 3; i++) {
+                out[i] = clamp(in[i] + layer[i] - 0.5f);
+            }
+        }
+    },
+    // https://git.gnome.org/browse/gimp/tree/app/operations/gimpoperationdividemode.c
+    DIVIDE {
+        @Override
+        void process(ProcessContext ctx, float[] in, float[] layer, int x, int y, float[] out) {
+            for (int i = 0; i < 3; i++) {
+                out[i] = fmin(in[i] / layer[i], 1f);
+            }
+        }
+    },
+
+    // https://git.gnome.org/browse/gimp/tree/app/operations/gimpoperationhuemode.c
+    HUE {
+        @Override
+        void process(ProcessContext ctx, float[] in, float[] layer, int x, int y, float[] out) {
+            UniformLayerBlend.HUE.precompute(layer[0], layer[1], layer[2], ctx.layerData);
+            UniformLayerBlend.HUE.process(in, ctx.layerData, ctx.inHsv, out);
+        }
+    },
+    // https://git.gnome.org/browse/gimp/tree/app/operations/gimpoperationsaturationmode.c
+    SATURATION {
+        @Override
+        void process(ProcessContext ctx, float[] in, float[] layer, int x, int y, float[] out) {
+            UniformLayerBlend.SATURATION.precompute(layer[0], layer[1], layer[2], ctx.layerData);
+            UniformLayerBlend.SATURATION.process(in, ctx.layerData, ctx.inHsv, out);
+        }
+    },
+    // https://git.gnome.org/browse/gimp/tree/app/operations/gimpoperationcolormode.c
+    COLOR {
+        @Override
+        void process(ProcessContext ctx, float[] in, float[] layer, int x, int y, float[] out) {
+            UniformLayerBlend.COLOR.precompute(layer[0], layer[1], layer[2], ctx.layerData);
+            UniformLayerBlend.COLOR.process(in, ctx.layerData, ctx.inHsv, out);
+        }
+    },
+    // https://git.gnome.org/browse/gimp/tree/app/operations/gimpoperationvaluemode.c
+    VALUE {
+        @Override
+        void process(ProcessContext ctx, float[] in, float[] layer, int x, int y, float[] out) {
+            UniformLayerBlend.VALUE.precompute(layer[0], layer[1], layer[2], ctx.layerData);
+            UniformLayerBlend.VALUE.process(in, ctx.layerData, ctx.inHsv, out);
+        }
+    },
+
+    TONE_CURVE {
+        @Override
+        void process(ProcessContext ctx, float[] in, float[] layer, int x, int y, float[] out) {
+            for (int i = 0; i < 3; i++) {
+                out[i] = getApproxSCurve(in[i], layer[i]);
+            }
+        }
+    },
+    // see processSepia in filter.rs for the derivation.
+    SEPIA {
+        @Override
+        void process(ProcessContext ctx, float[] in, float[] layer, int x, int y, float[] out) {
+            float c = 2f * in[0] + 4f * in[1] + in[2];
+            for (int i = 0; i < 3; i++) {
+                out[i] = clamp((0.131f + (0.189f - 0.131f) * layer[i]) * c);
+            }
+        }
+    },
+    // https://git.gnome.org/browse/gimp/tree/app/operations/gimpoperationbrightnesscontrast.c
+    BRIGHTNESS_CONTRAST {
+        @Override
+        void process(ProcessContext ctx, float[] in, float[] layer, int x, int y, float[] out) {
+            float b = 2f * layer[0] - 1f;
+            float c = 4f * layer[1] * layer[1];
+            for (int i = 0; i < 3; i++) {
+                float v;
+                if (b < 0f) {
+                    v = in[i] * (1f + b);
+                } else {
+                    v = in[i] + ((1f - in[i]) * b);
+                }
+                out[i] = clamp((v - 0.5f) * c + 0.5f);
+            }
+        }
+    },
+
+    MOSAIC {
+        // average of the cell, instead of its top-left pixel like processMosaic.
+        @Override
+        void process(ProcessContext ctx, float[] in, float[] layer, int x, int y, float[] out) {
+            int size = ctx.mosaicSize;
+            int xm = size * (x / size);
+            int ym = size * (y / size);
+            unpack(ctx.table.getAverage(xm, ym, xm + size, ym + size), out);
+        }
+    },
+    NOISE {
+        @Override
+        void process(ProcessContext ctx, float[] in, float[] layer, int x, int y, float[] out) {
+            ctx.noise.apply(in, x, y, out);
+        }
+    },
+    BLUR2 {
+        @Override
+        void process(ProcessContext ctx, float[] in, float[] layer, int x, int y, float[] out) {
+            unpack(ctx.blur[y * ctx.width + x], out);
+        }
+    };
+
+    abstract void process(ProcessContext ctx, float[] in, float[] layer, int x, int y, float[] out);
+
+    private static final ProcessFunc[] PROCESS_FUNC_TABLE = values();
+
+    static ProcessFunc get(FilterType type) {
+        return PROCESS_FUNC_TABLE[type.ordinal()];
+    }
+
+    static float clamp(float v) {
+        if (v > 1f) {
+            return 1f;
+        } else if (v < 0f) {
+            return 0f;
+        } else {
+            return v;
+        }
+    }
+
+    // Like fmin in C, NaN (0 / 0) is treated as missing data. Math.min would return NaN.
+    static float fmin(float v, float max) {
+        return v < max ? v : max;
+    }
+
+    static float getApproxSCurve(float x, float b) {
+        // b == 0.00 : 1/2
+        // b == 0.25 : sqrt(x/2)
+        // b == 0.50 : x
+        // b == 0.75 : 2x^2
+        // b == 1.00 : 4x^3
+        // interpolate
+        if (b == 0f) {
+            return 0.5f;
+        } else if (b < 0.25f) {
+            b = b * 4f;
+            return 0.5f * (1f - b) + (float) Math.sqrt(x * 0.5f) * b;
+        } else if (b < 0.5f) {
+            b = (b - 0.25f) * 4f;
+            return (float) Math.sqrt(x * 0.5f) * (1f - b) + x * b;
+        } else if (b < 0.75f) {
+            b = (b - 0.5f) * 4f;
+            return x * (1f + (2f * x - 1f) * b);
+        } else {
+            b = (b - 0.75f) * 4f;
+            return 2f * x * x * (1f + (2f * x - 1f) * b);
+        }
+    }
+
+    // same as rsUnpackColor8888. alpha is ignored.
+    static void unpack(int color, float[] rgb) {
+        rgb[0] = ((color >> 16) & 0xff) / 255f;
+        rgb[1] = ((color >> 8) & 0xff) / 255f;
+        rgb[2] = (color & 0xff) / 255f;
+    }
+
+    // same as rsPackColorTo8888(float3). alpha is 1.
+    static int pack(float r, float g, float b) {
+        return 0xff000000 | (packComponent(r) << 16) | (packComponent(g) << 8) | packComponent(b);
+    }
+
+    private static int packComponent(float v) {
+        return (int) (clamp(v) * 255f + 0.5f);
+    }
+}
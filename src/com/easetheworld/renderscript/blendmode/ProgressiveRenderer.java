@@ -0,0 +1,344 @@
+package com.easetheworld.renderscript.blendmode;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import com.easetheworld.renderscript.blendmode.FilterScript.FilterType;
+
+// Renders strokes in two steps over a full resolution CpuFilterScript.
+// - preview : while dragging, the rect is filtered at a pyramid level(1/2^level size) close to
+//   the view scale and scaled up into out. input and blending of the levels are cached.
+// - refine : when the stroke ends, the rect is filtered at full resolution on a background thread,
+//   tile row by tile row at background priority. finishRefine(e.g. before a new stroke begins) renders
+//   the rest of it right away, cancelRefine drops the rest.
+// Calls on this object must come from one thread(e.g. the ui thread), except RefineListener.
+// release stops the refine thread.
+// previews are recorded to the FilterMetrics of the full script, refines to getRefineMetrics, both by the
+// rect of the full resolution image whatever the level.
+public class ProgressiveRenderer {
+    public static final int MAX_LEVEL = 4;
+
+    // rows refined between checks for cancel
+    private static final int REFINE_ROWS = TileCompositor.DEFAULT_TILE_SIZE;
+
+    // static, so that the thread doesn't hold a renderer.
+    private static final ThreadFactory REFINE_THREAD_FACTORY = new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "ProgressiveRenderer");
+            t.setDaemon(true);
+            return t;
+        }
+    };
+
+    public interface RefineListener {
+        // called on the refine thread after the rect of out is at full resolution.
+        void onRefined(int left, int top, int right, int bottom);
+    }
+
+    private static class Level {
+        final int shift;
+        final int width;
+        final int height;
+        final CpuFilterScript script;
+        final int[] drawing;
+        final int[] out;
+        boolean blendingValid;
+
+        Level(int shift, int width, int height, int[] in) {
+            this.shift = shift;
+            this.width = width;
+            this.height = height;
+            script = new CpuFilterScript(in, width, height);
+            drawing = new int[width * height];
+            out = new int[width * height];
+        }
+    }
+
+    private final CpuFilterScript full;
+    private final Level[] levels = new Level[MAX_LEVEL + 1];
+
+    private final ExecutorService refineExecutor;
+    private Future<?> refineTask;
+    // tiles of the refine in progress, cancelled by cancelRefine.
+    private volatile TileScheduler.Job refineJob;
+    // refine tasks of an old generation stop, and don't write out any more.
+    private volatile int generation;
+    private final Object outLock = new Object();
+
+    // the last refine, for finishRefine. null if done or cancelled.
+    private FilterType refineType;
+    private int[] refineDrawing;
+    private int[] refineOut;
+    private int refineLeft, refineRight, refineBottom;
+    // rows above are in out. guarded by outLock.
+    private int refinedRow;
+
+    // null disables recording
+    private volatile FilterMetrics refineMetrics = new FilterMetrics();
+
+    public ProgressiveRenderer(CpuFilterScript full) {
+        this.full = full;
+        refineExecutor = Executors.newSingleThreadExecutor(REFINE_THREAD_FACTORY);
+    }
+
+    // Level whose pixels are about the size of view pixels. viewScale is view size / image size.
+    public static int chooseLevel(float viewScale) {
+        int level = 0;
+        while (level < MAX_LEVEL && viewScale * (2 << level) <= 1f) {
+            level++;
+        }
+        return level;
+    }
+
+    public FilterMetrics getRefineMetrics() {
+        return refineMetrics;
+    }
+
+    public void setRefineMetrics(FilterMetrics metrics) {
+        refineMetrics = metrics;
+    }
+
+    public void setInputPixels(int[] pixels) {
+        cancelRefine();
+        full.setInputPixels(pixels);
+        for (int i = 0; i < levels.length; i++) {
+            levels[i] = null;
+        }
+    }
+
+    public void setBlendingPixels(int[] pixels) {
+        cancelRefine();
+        full.setBlendingPixels(pixels);
+        for (Level level : levels) {
+            if (level != null) {
+                level.blendingValid = false;
+            }
+        }
+    }
+
+    // Filters rect of drawing(full resolution) at level, and writes it scaled up to out.
+    public void preview(FilterType type, int[] drawing, int[] out, int left, int top, int right, int bottom,
+            int level) {
+        cancelRefine();
+        long t1 = System.nanoTime();
+        int w = full.getWidth();
+        int h = full.getHeight();
+        left = Math.max(left, 0);
+        top = Math.max(top, 0);
+        right = Math.min(right, w);
+        bottom = Math.min(bottom, h);
+        if (left >= right || top >= bottom) {
+            return;
+        }
+        if (level <= 0) {
+            full.setDrawingPixels(drawing, left, top, right, bottom);
+            full.renderRect(type, out, left, top, right, bottom);
+            record(full.getMetrics(), type, t1, left, top, right, bottom);
+            return;
+        }
+        Level lv = getLevel(Math.min(level, MAX_LEVEL));
+        int s = lv.shift;
+        int l = Math.min(left >> s, lv.width - 1);
+        int t = Math.min(top >> s, lv.height - 1);
+        int r = Math.min(((right - 1) >> s) + 1, lv.width);
+        int b = Math.min(((bottom - 1) >> s) + 1, lv.height);
+        downsample(drawing, w, h, lv.drawing, lv.width, s, l, t, r, b);
+        lv.script.setDrawingPixels(lv.drawing, l, t, r, b);
+        int size = 1 << s;
+        lv.script.setOptions(full.getBlurRadius() / size, full.getBlurEdgeMode(),
+                Math.max(1, full.getMosaicSize() / size), full.getNoise());
+        lv.script.renderRect(type, lv.out, l, t, r, b);
+
+        synchronized (outLock) {
+            for (int y = top; y < bottom; y++) {
+                int src = Math.min(y >> s, lv.height - 1) * lv.width;
+                int dst = y * w;
+                for (int x = left; x < right; x++) {
+                    out[dst + x] = lv.out[src + Math.min(x >> s, lv.width - 1)];
+                }
+            }
+        }
+        record(full.getMetrics(), type, t1, left, top, right, bottom);
+    }
+
+    // Starts filtering rect at full resolution into out. A refine in progress is cancelled.
+    // drawing and out must not be changed until it is done or cancelled.
+    public void refine(final FilterType type, final int[] drawing, final int[] out, int left, int top, int right,
+            int bottom, final RefineListener listener) {
+        cancelRefine();
+        final int l = Math.max(left, 0);
+        final int t = Math.max(top, 0);
+        final int r = Math.min(right, full.getWidth());
+        final int b = Math.min(bottom, full.getHeight());
+        if (l >= r || t >= b) {
+            return;
+        }
+        refineType = type;
+        refineDrawing = drawing;
+        refineOut = out;
+        refineLeft = l;
+        refineRight = r;
+        refineBottom = b;
+        synchronized (outLock) {
+            refinedRow = t;
+        }
+        final int task = generation;
+        refineTask = refineExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                full.setDrawingPixels(drawing, l, t, r, b);
+                for (int y = t; y < b && generation == task; y += REFINE_ROWS) {
+                    int end = Math.min(y + REFINE_ROWS, b);
+                    long t1 = System.nanoTime();
+                    TileScheduler.Job job = full.submitRect(type, l, y, r, end, TileScheduler.PRIORITY_BACKGROUND);
+                    refineJob = job;
+                    // cancelRefine may have missed the job.
+                    if (generation != task) {
+                        job.cancel();
+                    }
+                    if (!job.await()) {
+                        return;
+                    }
+                    synchronized (outLock) {
+                        if (generation != task) {
+                            return;
+                        }
+                        int w = full.getWidth();
+                        for (int row = y; row < end; row++) {
+                            System.arraycopy(full.outPixels, row * w + l, out, row * w + l, r - l);
+                        }
+                        refinedRow = end;
+                    }
+                    record(refineMetrics, type, t1, l, y, r, end);
+                    if (listener != null) {
+                        listener.onRefined(l, y, r, end);
+                    }
+                }
+            }
+        });
+    }
+
+    // Stops the refine in progress, and waits for the tile row being filtered.
+    // After this returns, the refine doesn't write out, and the rest of it stays as preview.
+    public void cancelRefine() {
+        stopRefine();
+        refineOut = null;
+        refineDrawing = null;
+    }
+
+    // Renders the rest of the last refine into out on this thread, at full resolution with all workers,
+    // so that its rect is final(e.g. before the stroke is committed). Returns false if there was nothing left.
+    // RefineListener is not called for the rows done here.
+    public boolean finishRefine() {
+        stopRefine();
+        int[] out = refineOut;
+        int[] drawing = refineDrawing;
+        refineOut = null;
+        refineDrawing = null;
+        if (out == null) {
+            return false;
+        }
+        int top;
+        synchronized (outLock) {
+            top = refinedRow;
+        }
+        if (top >= refineBottom) {
+            return false;
+        }
+        long t1 = System.nanoTime();
+        full.setDrawingPixels(drawing, refineLeft, top, refineRight, refineBottom);
+        synchronized (outLock) {
+            full.renderRect(refineType, out, refineLeft, top, refineRight, refineBottom);
+        }
+        record(refineMetrics, refineType, t1, refineLeft, top, refineRight, refineBottom);
+        return true;
+    }
+
+    // Refine tasks and the thread end. Don't use this after.
+    public void release() {
+        cancelRefine();
+        refineExecutor.shutdown();
+    }
+
+    private void stopRefine() {
+        generation++;
+        TileScheduler.Job job = refineJob;
+        if (job != null) {
+            job.cancel();
+        }
+        if (refineTask != null) {
+            try {
+                refineTask.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("refine failed", e.getCause());
+            }
+            refineTask = null;
+        }
+    }
+
+    // rect of out since t1
+    private void record(FilterMetrics metrics, FilterType type, long t1, int left, int top, int right, int bottom) {
+        if (metrics != null) {
+            long pixels = (long) (right - left) * (bottom - top);
+            metrics.record(type, System.nanoTime() - t1, pixels, (long) full.getWidth() * full.getHeight(),
+                    pixels * 4);
+        }
+    }
+
+    private Level getLevel(int level) {
+        Level lv = levels[level];
+        if (lv == null) {
+            int w = full.getWidth();
+            int h = full.getHeight();
+            int lw = Math.max(1, w >> level);
+            int lh = Math.max(1, h >> level);
+            int[] in = new int[lw * lh];
+            downsample(full.inPixels, w, h, in, lw, level, 0, 0, lw, lh);
+            lv = new Level(level, lw, lh, in);
+            levels[level] = lv;
+        }
+        if (!lv.blendingValid) {
+            int[] blending = new int[lv.width * lv.height];
+            downsample(full.blendingPixels, full.getWidth(), full.getHeight(), blending, lv.width, level, 0, 0,
+                    lv.width, lv.height);
+            lv.script.setBlendingPixels(blending);
+            lv.blendingValid = true;
+        }
+        return lv;
+    }
+
+    // Average of 2^shift x 2^shift blocks(all 4 channels) of src for rect [l, t, r, b) of dst.
+    private static void downsample(int[] src, int srcWidth, int srcHeight, int[] dst, int dstWidth, int shift,
+            int l, int t, int r, int b) {
+        int size = 1 << shift;
+        for (int y = t; y < b; y++) {
+            int y0 = y << shift;
+            int y1 = Math.min(y0 + size, srcHeight);
+            for (int x = l; x < r; x++) {
+                int x0 = x << shift;
+                int x1 = Math.min(x0 + size, srcWidth);
+                int a = 0, red = 0, green = 0, blue = 0;
+                for (int sy = y0; sy < y1; sy++) {
+                    int row = sy * srcWidth;
+                    for (int sx = x0; sx < x1; sx++) {
+                        int c = src[row + sx];
+                        a += c >>> 24;
+                        red += (c >> 16) & 0xff;
+                        green += (c >> 8) & 0xff;
+                        blue += c & 0xff;
+                    }
+                }
+                int n = (y1 - y0) * (x1 - x0);
+                int half = n / 2;
+                dst[y * dstWidth + x] = ((a + half) / n << 24) | ((red + half) / n << 16)
+                        | ((green + half) / n << 8) | (blue + half) / n;
+            }
+        }
+    }
+}
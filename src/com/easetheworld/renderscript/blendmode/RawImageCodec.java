@@ -0,0 +1,53 @@
+package com.easetheworld.renderscript.blendmode;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+// Uncompressed ARGB : width, height, then width * height pixels, all big endian ints.
+// Needs nothing but java.io, so batches run anywhere, e.g. to measure the pipeline without a codec.
+public class RawImageCodec implements ImageCodec {
+    public static final String EXTENSION = "argb";
+
+    // over this is not an image of this codec
+    private static final int MAX_SIZE = 1 << 15;
+
+    @Override
+    public boolean accepts(File file) {
+        return file.getName().endsWith("." + EXTENSION);
+    }
+
+    @Override
+    public Image decode(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        int width = in.readInt();
+        int height = in.readInt();
+        if (width < 1 || height < 1 || width > MAX_SIZE || height > MAX_SIZE) {
+            throw new IOException("not a raw image : " + width + "x" + height);
+        }
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = in.readInt();
+        }
+        return new Image(width, height, pixels);
+    }
+
+    @Override
+    public void encode(Image image, OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(image.width);
+        out.writeInt(image.height);
+        for (int i = 0; i < image.width * image.height; i++) {
+            out.writeInt(image.pixels[i]);
+        }
+        out.flush();
+    }
+
+    @Override
+    public String getExtension() {
+        return EXTENSION;
+    }
+}
@@ -0,0 +1,94 @@
+package com.easetheworld.renderscript.blendmode;
+
+// Java port of rgb_hsv.rsh
+// https://git.gnome.org/browse/gimp/tree/libgimpcolor/gimpcolorspace.c
+final class RgbHsv {
+
+    private RgbHsv() {
+    }
+
+    // r, g, b : 0~1
+    // h : 0~6, s,v : 0~1
+    static void rgbToHsv(float r, float g, float b, float[] hsv) {
+        float max = Math.max(Math.max(r, g), b);
+        float min = Math.min(Math.min(r, g), b);
+
+        float v = max;
+        float s;
+        float h;
+        float delta = max - min;
+        if (delta > 0f) {
+            s = delta / v;
+            if (r == max) {
+                h = (g - b) / delta;
+                if (h < 0f) {
+                    h += 6f;
+                }
+            } else if (g == max) {
+                h = (b - r) / delta + 2f;
+            } else {
+                h = (r - g) / delta + 4f;
+            }
+        } else {
+            s = 0f;
+            h = 0f;
+        }
+
+        hsv[0] = h;
+        hsv[1] = s;
+        hsv[2] = v;
+    }
+
+    // h : 0~6, s,v : 0~1
+    // r, g, b : 0~1
+    static void hsvToRgb(float h, float s, float v, float[] rgb) {
+        if (s == 0f) {
+            rgb[0] = v;
+            rgb[1] = v;
+            rgb[2] = v;
+            return;
+        }
+        if (h == 6f) {
+            h = 0f;
+        }
+
+        int i = (int) h;
+        float f = h - i;
+        float w = v * (1f - s);
+        float q = v * (1f - s * f);
+        float t = v * (1f - s * (1f - f));
+
+        switch (i) {
+        case 0:
+            rgb[0] = v;
+            rgb[1] = t;
+            rgb[2] = w;
+            break;
+        case 1:
+            rgb[0] = q;
+            rgb[1] = v;
+            rgb[2] = w;
+            break;
+        case 2:
+            rgb[0] = w;
+            rgb[1] = v;
+            rgb[2] = t;
+            break;
+        case 3:
+            rgb[0] = w;
+            rgb[1] = q;
+            rgb[2] = v;
+            break;
+        case 4:
+            rgb[0] = t;
+            rgb[1] = w;
+            rgb[2] = v;
+            break;
+        default:
+            rgb[0] = v;
+            rgb[1] = w;
+            rgb[2] = q;
+            break;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.easetheworld.renderscript.blendmode;
+
+import com.easetheworld.renderscript.blendmode.FilterScript.FilterType;
+
+// Blend modes whose channels don't depend on each other.
+// Since r, g, b use the same math, a run of pixels is unpacked into one planar float array
+// (all channels in a row) and blended in one flat loop per mode.
+// The loops have no calls and no data dependent branches, so the JIT can vectorize them.
+// Results are same as ProcessFunc within 1/255.
+enum SeparableBlend {
+    NORMAL {
+        @Override
+        void blend(float[] in, float[] layer, float[] out, int n) {
+            System.arraycopy(layer, 0, out, 0, n);
+        }
+    },
+    ERASER {
+        @Override
+        void blend(float[] in, float[] layer, float[] out, int n) {
+            System.arraycopy(in, 0, out, 0, n);
+        }
+    },
+    LIGHTEN_ONLY {
+        @Override
+        void blend(float[] in, float[] layer, float[] out, int n) {
+            for (int i = 0; i < n; i++) {
+                out[i] = Math.max(in[i], layer[i]);
+            }
+        }
+    },
+    SCREEN {
+        @Override
+        void blend(float[] in, float[] layer, float[] out, int n) {
+            for (int i = 0; i < n; i++) {
+                out[i] = 1f - (1f - in[i]) * (1f - layer[i]);
+            }
+        }
+    },
+    DODGE {
+        @Override
+        void blend(float[] in, float[] layer, float[] out, int n) {
+            for (int i = 0; i < n; i++) {
+                float v = in[i] / (1f - layer[i]);
+                // NaN(0 / 0) is 1 like fmin
+                out[i] = v < 1f ? v : 1f;
+            }
+        }
+    },
+    ADDITION {
+        @Override
+        void blend(float[] in, float[] layer, float[] out, int n) {
+            for (int i = 0; i < n; i++) {
+                out[i] = Math.min(in[i] + layer[i], 1f);
+            }
+        }
+    },
+    DARKEN_ONLY {
+        @Override
+        void blend(float[] in, float[] layer, float[] out, int n) {
+            for (int i = 0; i < n; i++) {
+                out[i] = Math.min(in[i], layer[i]);
+            }
+        }
+    },
+    MULTIPLY {
+        @Override
+        void blend(float[] in, float[] layer, float[] out, int n) {
+            for (int i = 0; i < n; i++) {
+                out[i] = in[i] * layer[i];
+            }
+        }
+    },
+    BURN {
+        @Override
+        void blend(float[] in, float[] layer, float[] out, int n) {
+            for (int i = 0; i < n; i++) {
+                out[i] = Math.min(Math.max(1f - (1f - in[i]) / layer[i], 0f), 1f);
+            }
+        }
+    },
+    OVERLAY {
+        @Override
+        void blend(float[] in, float[] layer, float[] out, int n) {
+            for (int i = 0; i < n; i++) {
+                out[i] = Math.min(in[i] * (in[i] + (2f * layer[i]) * (1f - in[i])), 1f);
+            }
+        }
+    },
+    SOFT_LIGHT {
+        @Override
+        void blend(float[] in, float[] layer, float[] out, int n) {
+            for (int i = 0; i < n; i++) {
+                float multiply = in[i] * layer[i];
+                float screen = 1f - (1f - in[i]) * (1f - layer[i]);
+                out[i] = (1f - in[i]) * multiply + in[i] * screen;
+            }
+        }
+    },
+    HARD_LIGHT {
+        @Override
+        void blend(float[] in, float[] layer, float[] out, int n) {
+            for (int i = 0; i < n; i++) {
+                // both sides are computed and selected, instead of branching.
+                float light = 1f - (1f - in[i]) * (1f - (layer[i] - 0.5f) * 2f);
+                float dark = in[i] * (layer[i] * 2f);
+                out[i] = Math.min(layer[i] > 0.5f ? light : dark, 1f);
+            }
+        }
+    },
+    DIFFERENCE {
+        @Override
+        void blend(float[] in, float[] layer, float[] out, int n) {
+            for (int i = 0; i < n; i++) {
+                out[i] = Math.abs(in[i] - layer[i]);
+            }
+        }
+    },
+    SUBTRACT {
+        @Override
+        void blend(float[] in, float[] layer, float[] out, int n) {
+            for (int i = 0; i < n; i++) {
+                out[i] = Math.max(0f, in[i] - layer[i]);
+            }
+        }
+    },
+    GRAIN_EXTRACT {
+        @Override
+        void blend(float[] in, float[] layer, float[] out, int n) {
+            for (int i = 0; i < n; i++) {
+                out[i] = Math.min(Math.max(in[i] - layer[i] + 0.5f, 0f), 1f);
+            }
+        }
+    },
+    GRAIN_MERGE {
+        @Override
+        void blend(float[] in, float[] layer, float[] out, int n) {
+            for (int i = 0; i < n; i++) {
+                out[i] = Math.min(Math.max(in[i] + layer[i] - 0.5f, 0f), 1f);
+            }
+        }
+    },
+    DIVIDE {
+        @Override
+        void blend(float[] in, float[] layer, float[] out, int n) {
+            for (int i = 0; i < n; i++) {
+                float v = in[i] / layer[i];
+                // NaN(0 / 0) is 1 like fmin
+                out[i] = v < 1f ? v : 1f;
+            }
+        }
+    };
+
+    // in, layer and out are planar channel values of 0~1.
+    abstract void blend(float[] in, float[] layer, float[] out, int n);
+
+    private static final SeparableBlend[] TABLE = new SeparableBlend[FilterType.values().length];
+
+    static {
+        for (SeparableBlend blend : values()) {
+            TABLE[FilterType.valueOf(blend.name()).ordinal()] = blend;
+        }
+    }
+
+    // null if type is not separable
+    static SeparableBlend get(FilterType type) {
+        return TABLE[type.ordinal()];
+    }
+
+    // pixels per run. planar arrays of 3 * RUN_LENGTH floats fit in L1 cache.
+    static final int RUN_LENGTH = 256;
+
+    // Work arrays of a band. same role as ProcessContext for ProcessFunc.
+    static final class Buffers {
+        final float[] in = new float[RUN_LENGTH * 3];
+        final float[] layer = new float[RUN_LENGTH * 3];
+        final float[] dst = new float[RUN_LENGTH * 3];
+        final float[] filter = new float[RUN_LENGTH * 3];
+        final float[] alpha = new float[RUN_LENGTH];
+    }
+
+    // out = alphaMix(blending, blend(src, drawing)) for n pixels from offset.
+    // same as root() in filter.rs.
+    void blendRun(Buffers b, int[] src, int[] drawing, int[] blending, int[] out, int offset, int n) {
+        unpackPlanar(src, offset, n, b.in);
+        unpackPlanar(drawing, offset, n, b.layer);
+        unpackPlanar(blending, offset, n, b.dst);
+        float[] alpha = b.alpha;
+        for (int i = 0; i < n; i++) {
+            alpha[i] = (drawing[offset + i] >>> 24) * INV_255;
+        }
+
+        blend(b.in, b.layer, b.filter, n * 3);
+
+        float[] filter = b.filter;
+        float[] dst = b.dst;
+        for (int c = 0; c < 3; c++) {
+            int base = c * n;
+            for (int i = 0; i < n; i++) {
+                float d = dst[base + i];
+                dst[base + i] = d + (filter[base + i] - d) * alpha[i];
+            }
+        }
+
+        for (int i = 0; i < n; i++) {
+            int p = offset + i;
+            if (alpha[i] == 0f) {
+                // filter may be NaN, and NaN * 0 is NaN.
+                out[p] = blending[p];
+            } else {
+                out[p] = 0xff000000 | (packComponent(dst[i]) << 16) | (packComponent(dst[n + i]) << 8)
+                        | packComponent(dst[2 * n + i]);
+            }
+        }
+    }
+
+    // blendRun where every drawing alpha is 255, so out is the blend itself.
+    void blendRunOpaque(Buffers b, int[] src, int[] drawing, int[] out, int offset, int n) {
+        unpackPlanar(src, offset, n, b.in);
+        unpackPlanar(drawing, offset, n, b.layer);
+
+        blend(b.in, b.layer, b.filter, n * 3);
+
+        float[] filter = b.filter;
+        for (int i = 0; i < n; i++) {
+            out[offset + i] = 0xff000000 | (packComponent(filter[i]) << 16) | (packComponent(filter[n + i]) << 8)
+                    | packComponent(filter[2 * n + i]);
+        }
+    }
+
+    // multiply instead of divide. this differs from / 255f by at most 1 ulp.
+    private static final float INV_255 = 1f / 255f;
+
+    // r of n pixels at [0, n), g at [n, 2n), b at [2n, 3n)
+    private static void unpackPlanar(int[] pixels, int offset, int n, float[] planar) {
+        for (int i = 0; i < n; i++) {
+            int p = pixels[offset + i];
+            planar[i] = ((p >> 16) & 0xff) * INV_255;
+            planar[n + i] = ((p >> 8) & 0xff) * INV_255;
+            planar[2 * n + i] = (p & 0xff) * INV_255;
+        }
+    }
+
+    private static int packComponent(float v) {
+        return (int) (Math.min(Math.max(v, 0f), 1f) * 255f + 0.5f);
+    }
+}
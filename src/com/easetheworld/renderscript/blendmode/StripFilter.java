@@ -0,0 +1,107 @@
+package com.easetheworld.renderscript.blendmode;
+
+import java.util.concurrent.ExecutorService;
+
+import com.easetheworld.renderscript.blendmode.FilterScript.FilterType;
+
+// Filters StripImages strip by strip through CpuFilterScript, with the input as blending.
+// Only one window of rows is on the heap at a time, so memory doesn't grow with the image.
+// A window is the strip plus the rows its filter reads around it:
+// - BLUR2 : the support of the 3 box blurs above and below, so edges of strips are seamless.
+// - MOSAIC : up to the cells the strip overlaps, so cells are the same as in the whole image.
+// Results are the same as CpuFilterScript.apply on the whole image.
+public class StripFilter {
+    // one for all windows
+    private final TileScheduler scheduler;
+
+    private float blurRadius = 15f;
+    private BoxBlur.EdgeMode blurEdgeMode = BoxBlur.EdgeMode.CLAMP;
+    private int mosaicSize = CpuFilterScript.DEFAULT_MOSAIC_SIZE;
+    private HashNoise noise = HashNoise.DEFAULT;
+
+    // of the last window. windows of a pass have at most 3 heights(first, middle, last strip), so it is
+    // made again at most 3 times a pass. one script per height would keep a window of buffers per height.
+    private CpuFilterScript script;
+    private int[] inRows = new int[0];
+    private int[] drawingRows = new int[0];
+    private int[] outRows = new int[0];
+
+    public StripFilter() {
+        this(null, 0);
+    }
+
+    // executor null means TileScheduler.getDefault().
+    public StripFilter(ExecutorService executor, int parallelism) {
+        scheduler = executor == null ? TileScheduler.getDefault() : new TileScheduler(executor, parallelism);
+    }
+
+    public void setBlurRadius(float radius) {
+        blurRadius = radius;
+    }
+
+    public void setBlurEdgeMode(BoxBlur.EdgeMode edge) {
+        blurEdgeMode = edge;
+    }
+
+    public void setMosaicSize(int size) {
+        mosaicSize = Math.max(1, size);
+    }
+
+    // the origin of noise is set to each window, so the noise is of the position in the whole image.
+    public void setNoise(HashNoise noise) {
+        this.noise = noise;
+    }
+
+    public void apply(FilterType type, StripImage in, StripImage drawing, StripImage out) {
+        int width = in.getWidth();
+        int height = in.getHeight();
+        if (drawing.getWidth() != width || drawing.getHeight() != height || out.getWidth() != width
+                || out.getHeight() != height) {
+            throw new IllegalArgumentException("images must be " + width + "x" + height);
+        }
+        int stripHeight = in.getStripHeight();
+        int halo = 0;
+        if (type == FilterType.BLUR2) {
+            for (int r : BoxBlur.getGaussianRadii(0.4f * blurRadius + 0.6f)) {
+                halo += r;
+            }
+        }
+        for (int top = 0; top < height; top += stripHeight) {
+            int bottom = Math.min(top + stripHeight, height);
+            int windowTop = Math.max(top - halo, 0);
+            int windowBottom = Math.min(bottom + halo, height);
+            if (type == FilterType.MOSAIC) {
+                windowTop = top / mosaicSize * mosaicSize;
+                windowBottom = Math.min((bottom + mosaicSize - 1) / mosaicSize * mosaicSize, height);
+            }
+            int rows = windowBottom - windowTop;
+            ensureRows(width * rows);
+            in.readRows(windowTop, windowBottom, inRows, 0);
+            drawing.readRows(windowTop, windowBottom, drawingRows, 0);
+
+            CpuFilterScript script = getScript(width, rows);
+            script.setOptions(blurRadius, blurEdgeMode, mosaicSize, noise.withOrigin(0, windowTop));
+            script.setInputPixels(inRows);
+            script.setBlendingPixels(inRows);
+            script.setDrawingPixels(drawingRows);
+            script.applyRect(type, outRows, 0, top - windowTop, width, bottom - windowTop);
+            out.writeRows(top, bottom, outRows, (top - windowTop) * width);
+        }
+    }
+
+    private void ensureRows(int size) {
+        if (inRows.length < size) {
+            inRows = new int[size];
+            drawingRows = new int[size];
+            outRows = new int[size];
+        }
+    }
+
+    private CpuFilterScript getScript(int width, int rows) {
+        if (script == null || script.getWidth() != width || script.getHeight() != rows) {
+            script = null; // for gc before the next one
+            script = new CpuFilterScript(inRows, width, rows, scheduler);
+        }
+        return script;
+    }
+}
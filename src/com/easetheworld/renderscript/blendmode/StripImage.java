@@ -0,0 +1,125 @@
+package com.easetheworld.renderscript.blendmode;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+// ARGB image outside the java heap, in horizontal strips of stripHeight rows.
+// Each strip is a direct ByteBuffer, or a region of a memory mapped file so that the OS pages
+// strips in and out and the image can be bigger than RAM.
+// Pixels are read and written by rows into int[] given by the caller(see StripFilter).
+public class StripImage {
+    public static final int DEFAULT_STRIP_HEIGHT = 256;
+
+    private final int width;
+    private final int height;
+    private final int stripHeight;
+    private final IntBuffer[] strips;
+    private final RandomAccessFile file;
+
+    private StripImage(int width, int height, int stripHeight, IntBuffer[] strips, RandomAccessFile file) {
+        this.width = width;
+        this.height = height;
+        this.stripHeight = stripHeight;
+        this.strips = strips;
+        this.file = file;
+    }
+
+    public static StripImage allocateDirect(int width, int height, int stripHeight) {
+        int count = getStripCount(width, height, stripHeight);
+        IntBuffer[] strips = new IntBuffer[count];
+        for (int i = 0; i < count; i++) {
+            int rows = Math.min(stripHeight, height - i * stripHeight);
+            strips[i] = ByteBuffer.allocateDirect(width * rows * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+        }
+        return new StripImage(width, height, stripHeight, strips, null);
+    }
+
+    // Maps file(created or resized to width * height * 4 bytes) read-write.
+    // Pixels already in the file are kept, so a raw ARGB file can be opened as an image.
+    public static StripImage map(File path, int width, int height, int stripHeight) throws IOException {
+        int count = getStripCount(width, height, stripHeight);
+        long stripBytes = (long) width * stripHeight * 4;
+        RandomAccessFile file = new RandomAccessFile(path, "rw");
+        try {
+            file.setLength((long) width * height * 4);
+            FileChannel channel = file.getChannel();
+            IntBuffer[] strips = new IntBuffer[count];
+            for (int i = 0; i < count; i++) {
+                int rows = Math.min(stripHeight, height - i * stripHeight);
+                strips[i] = channel.map(FileChannel.MapMode.READ_WRITE, i * stripBytes, (long) width * rows * 4)
+                        .order(ByteOrder.nativeOrder()).asIntBuffer();
+            }
+            return new StripImage(width, height, stripHeight, strips, file);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    private static int getStripCount(int width, int height, int stripHeight) {
+        if (stripHeight < 1) {
+            throw new IllegalArgumentException("stripHeight must be positive : " + stripHeight);
+        }
+        // a ByteBuffer is indexed by int
+        if ((long) width * stripHeight * 4 > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("strip of " + width + "x" + stripHeight + " is over 2GB");
+        }
+        return (height + stripHeight - 1) / stripHeight;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getStripHeight() {
+        return stripHeight;
+    }
+
+    public int getStripCount() {
+        return strips.length;
+    }
+
+    // rows [top, bottom) into dst from dstOffset. rows may cross strips.
+    public void readRows(int top, int bottom, int[] dst, int dstOffset) {
+        for (int y = top; y < bottom;) {
+            int s = y / stripHeight;
+            int end = Math.min(bottom, (s + 1) * stripHeight);
+            int count = (end - y) * width;
+            IntBuffer strip = strips[s].duplicate();
+            strip.position((y - s * stripHeight) * width);
+            strip.get(dst, dstOffset, count);
+            dstOffset += count;
+            y = end;
+        }
+    }
+
+    public void writeRows(int top, int bottom, int[] src, int srcOffset) {
+        for (int y = top; y < bottom;) {
+            int s = y / stripHeight;
+            int end = Math.min(bottom, (s + 1) * stripHeight);
+            int count = (end - y) * width;
+            IntBuffer strip = strips[s].duplicate();
+            strip.position((y - s * stripHeight) * width);
+            strip.put(src, srcOffset, count);
+            srcOffset += count;
+            y = end;
+        }
+    }
+
+    // Closes the mapped file. Mappings stay valid until they are garbage collected,
+    // since there is no public way to unmap them.
+    public void close() throws IOException {
+        if (file != null) {
+            file.close();
+        }
+    }
+}
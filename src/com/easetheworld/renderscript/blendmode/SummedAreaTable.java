@@ -0,0 +1,94 @@
+package com.easetheworld.renderscript.blendmode;
+
+// Integral image of r, g, b. sum[y][x] is the sum of pixels in [0, x) x [0, y),
+// so the sum of any rect is 4 reads whatever its size.
+// Sums are int and may overflow on big images, but the difference of 4 sums is still
+// correct(mod 2^32) as long as the rect sum fits in int, i.e. the rect is smaller than 2^32 / 255 pixels.
+public class SummedAreaTable {
+    private final int width;
+    private final int height;
+    // (width + 1) * (height + 1). row 0 and column 0 are 0.
+    private final int stride;
+    final int[] red;
+    final int[] green;
+    final int[] blue;
+
+    public SummedAreaTable(int width, int height) {
+        this.width = width;
+        this.height = height;
+        stride = width + 1;
+        int size = stride * (height + 1);
+        red = new int[size];
+        green = new int[size];
+        blue = new int[size];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    // The table is built in 2 passes, each of them can be split among threads.
+    // first, prefix sums along each row [top, bottom) of src.
+    void buildRows(int[] src, int top, int bottom) {
+        for (int y = top; y < bottom; y++) {
+            int s = (y + 1) * stride + 1;
+            int p = y * width;
+            int r = 0, g = 0, b = 0;
+            for (int x = 0; x < width; x++) {
+                int c = src[p + x];
+                r += (c >> 16) & 0xff;
+                g += (c >> 8) & 0xff;
+                b += c & 0xff;
+                red[s + x] = r;
+                green[s + x] = g;
+                blue[s + x] = b;
+            }
+        }
+    }
+
+    // then, prefix sums down each column [left, right) after all rows are done.
+    // rows are walked in order, so a band of columns reads memory sequentially.
+    void buildColumns(int left, int right) {
+        for (int y = 2; y <= height; y++) {
+            int s = y * stride + 1;
+            int above = s - stride;
+            for (int x = left; x < right; x++) {
+                red[s + x] += red[above + x];
+                green[s + x] += green[above + x];
+                blue[s + x] += blue[above + x];
+            }
+        }
+    }
+
+    // Average color of rect, clipped to the image.
+    public int getAverage(int left, int top, int right, int bottom) {
+        left = Math.max(left, 0);
+        top = Math.max(top, 0);
+        right = Math.min(right, width);
+        bottom = Math.min(bottom, height);
+        int area = (right - left) * (bottom - top);
+        if (area <= 0) {
+            return 0;
+        }
+        int a = top * stride + left;
+        int b = top * stride + right;
+        int c = bottom * stride + left;
+        int d = bottom * stride + right;
+        int half = area / 2;
+        // unsigned, since the sum of a big rect may not fit in 31 bits.
+        long r = (red[d] - red[b] - red[c] + red[a]) & 0xffffffffL;
+        long g = (green[d] - green[b] - green[c] + green[a]) & 0xffffffffL;
+        long bl = (blue[d] - blue[b] - blue[c] + blue[a]) & 0xffffffffL;
+        return 0xff000000 | (int) ((r + half) / area) << 16 | (int) ((g + half) / area) << 8
+                | (int) ((bl + half) / area);
+    }
+
+    // Box blur of one pixel. Near edges the box shrinks to the image, instead of reading outside.
+    public int getBoxAverage(int x, int y, int radius) {
+        return getAverage(x - radius, y - radius, x + radius + 1, y + radius + 1);
+    }
+}
@@ -0,0 +1,87 @@
+package com.easetheworld.renderscript.blendmode;
+
+// Generates moving gradient frames at a fixed rate on its own thread.
+// Drives FramePipeline without a camera, e.g. on a plain JVM.
+public class SyntheticFrameSource implements FrameSource {
+    private final long intervalNs;
+    private final int frameCount;
+
+    private volatile boolean running;
+    private Thread thread;
+
+    // frameCount < 0 means until stop.
+    public SyntheticFrameSource(float fps, int frameCount) {
+        intervalNs = (long) (1e9 / fps);
+        this.frameCount = frameCount;
+    }
+
+    @Override
+    public synchronized void start(final FramePipeline pipeline) {
+        running = true;
+        thread = new Thread("SyntheticFrameSource") {
+            @Override
+            public void run() {
+                long next = System.nanoTime();
+                for (int i = 0; running && (frameCount < 0 || i < frameCount); i++) {
+                    FramePipeline.Frame frame = pipeline.obtainFrame();
+                    if (frame != null) {
+                        fill(frame, i);
+                        pipeline.submit(frame);
+                    }
+                    next += intervalNs;
+                    long sleepNs = next - System.nanoTime();
+                    if (sleepNs > 0) {
+                        try {
+                            Thread.sleep(sleepNs / 1000000, (int) (sleepNs % 1000000));
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+            }
+        };
+        thread.start();
+    }
+
+    @Override
+    public void stop() {
+        Thread t;
+        synchronized (this) {
+            running = false;
+            t = thread;
+            thread = null;
+        }
+        if (t != null) {
+            t.interrupt();
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // waits until all frames are generated.
+    public void join() throws InterruptedException {
+        Thread t;
+        synchronized (this) {
+            t = thread;
+        }
+        if (t != null) {
+            t.join();
+        }
+    }
+
+    // diagonal gradient moving by one pixel per frame
+    static void fill(FramePipeline.Frame frame, int index) {
+        int w = frame.width;
+        int h = frame.height;
+        int[] pixels = frame.pixels;
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                int v = (x + y + index) & 0xff;
+                pixels[y * w + x] = 0xff000000 | (v << 16) | ((y * 255 / Math.max(h - 1, 1)) << 8) | (255 - v);
+            }
+        }
+    }
+}
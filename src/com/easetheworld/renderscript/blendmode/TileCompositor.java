@@ -0,0 +1,177 @@
+package com.easetheworld.renderscript.blendmode;
+
+import java.util.Arrays;
+
+// Tracks dirty tiles of an image between frames.
+// Rects from several touch events are accumulated by invalidate, and flush hands them over
+// once per frame as a few rects of whole tiles(horizontal runs merged with identical runs below).
+public class TileCompositor {
+    public static final int DEFAULT_TILE_SIZE = 64;
+
+    public interface RectCallback {
+        void onRect(int left, int top, int right, int bottom);
+    }
+
+    private final int width;
+    private final int height;
+    private final int tileSize;
+    private final int columns;
+    private final int rows;
+
+    private boolean[] dirty;
+    // swapped with dirty on flush, so flush doesn't allocate.
+    private boolean[] flushing;
+    private int dirtyCount;
+
+    // used only by flush. for each column, top tile row of the run beginning there, or -1.
+    private final int[] openTop;
+    private final int[] openEnd;
+
+    private int lastFlushTiles;
+    private long lastFlushArea;
+
+    public TileCompositor(int width, int height, int tileSize) {
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        columns = (width + tileSize - 1) / tileSize;
+        rows = (height + tileSize - 1) / tileSize;
+        dirty = new boolean[columns * rows];
+        flushing = new boolean[columns * rows];
+        openTop = new int[columns];
+        openEnd = new int[columns];
+    }
+
+    public TileCompositor(int width, int height) {
+        this(width, height, DEFAULT_TILE_SIZE);
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public synchronized void invalidate(int left, int top, int right, int bottom) {
+        left = Math.max(left, 0);
+        top = Math.max(top, 0);
+        right = Math.min(right, width);
+        bottom = Math.min(bottom, height);
+        if (left >= right || top >= bottom) {
+            return;
+        }
+        int c0 = left / tileSize;
+        int c1 = (right - 1) / tileSize;
+        int r0 = top / tileSize;
+        int r1 = (bottom - 1) / tileSize;
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                int i = r * columns + c;
+                if (!dirty[i]) {
+                    dirty[i] = true;
+                    dirtyCount++;
+                }
+            }
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        invalidate(0, 0, width, height);
+    }
+
+    public synchronized boolean isDirty() {
+        return dirtyCount > 0;
+    }
+
+    // Calls callback with coalesced dirty rects and clears them. returns the number of dirty tiles.
+    // Tiles invalidated while callback runs are kept for the next flush.
+    // flush must be called from one thread at a time(e.g. once per frame on the ui thread).
+    public int flush(RectCallback callback) {
+        boolean[] tiles;
+        int count;
+        synchronized (this) {
+            if (dirtyCount == 0) {
+                return 0;
+            }
+            tiles = dirty;
+            dirty = flushing;
+            flushing = tiles;
+            count = dirtyCount;
+            dirtyCount = 0;
+        }
+
+        long area = 0;
+        Arrays.fill(openTop, -1);
+        for (int r = 0; r <= rows; r++) {
+            int c = 0;
+            // close runs which don't continue to this row
+            for (int start = 0; start < columns; start++) {
+                if (openTop[start] < 0) {
+                    continue;
+                }
+                if (r == rows || !isRun(tiles, r, start, openEnd[start])) {
+                    area += emit(callback, start, openTop[start], openEnd[start], r);
+                    openTop[start] = -1;
+                }
+            }
+            if (r == rows) {
+                break;
+            }
+            while (c < columns) {
+                if (!tiles[r * columns + c]) {
+                    c++;
+                    continue;
+                }
+                int end = c;
+                while (end < columns && tiles[r * columns + end]) {
+                    end++;
+                }
+                if (openTop[c] < 0) {
+                    openTop[c] = r;
+                    openEnd[c] = end;
+                }
+                c = end;
+            }
+        }
+        Arrays.fill(tiles, false);
+
+        synchronized (this) {
+            lastFlushTiles = count;
+            lastFlushArea = area;
+        }
+        return count;
+    }
+
+    // whether row r has a run of dirty tiles exactly [start, end)
+    private boolean isRun(boolean[] tiles, int r, int start, int end) {
+        int base = r * columns;
+        if (start > 0 && tiles[base + start - 1]) {
+            return false;
+        }
+        if (end < columns && tiles[base + end]) {
+            return false;
+        }
+        for (int c = start; c < end; c++) {
+            if (!tiles[base + c]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long emit(RectCallback callback, int c0, int r0, int c1, int r1) {
+        int left = c0 * tileSize;
+        int top = r0 * tileSize;
+        int right = Math.min(c1 * tileSize, width);
+        int bottom = Math.min(r1 * tileSize, height);
+        callback.onRect(left, top, right, bottom);
+        return (long) (right - left) * (bottom - top);
+    }
+
+    public synchronized int getLastFlushTiles() {
+        return lastFlushTiles;
+    }
+
+    // pixels processed in the last flush
+    public synchronized long getLastFlushArea() {
+        return lastFlushArea;
+    }
+}
@@ -0,0 +1,423 @@
+package com.easetheworld.renderscript.blendmode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Undo / redo of strokes over an image, storing only the tiles each stroke changed.
+// A tile state is an immutable Tile, shared by every step that has it:
+// the tile after stroke n is also the tile before the next stroke that touches it.
+// Old tiles are deflated on a background thread when the history is over the memory budget,
+// and the oldest steps are dropped if it is still over.
+//
+// stroke : touch(rect) before pixels of rect change -> ... -> endStroke()
+// undo / redo : pixels of changed tiles are written back, and their rects are returned.
+// All methods except the compression must be called from one thread(e.g. the ui thread).
+public class TileHistory {
+    public static final long DEFAULT_MEMORY_BUDGET = 32L * 1024 * 1024;
+
+    // Access to the pixels of the image. Same signatures as Bitmap.getPixels / setPixels.
+    public interface Pixels {
+        void getPixels(int[] pixels, int offset, int stride, int x, int y, int width, int height);
+
+        void setPixels(int[] pixels, int offset, int stride, int x, int y, int width, int height);
+    }
+
+    // Pixels of an int[] of width * height.
+    public static class ArrayPixels implements Pixels {
+        private final int[] image;
+        private final int width;
+
+        public ArrayPixels(int[] image, int width) {
+            this.image = image;
+            this.width = width;
+        }
+
+        @Override
+        public void getPixels(int[] pixels, int offset, int stride, int x, int y, int w, int h) {
+            for (int row = 0; row < h; row++) {
+                System.arraycopy(image, (y + row) * width + x, pixels, offset + row * stride, w);
+            }
+        }
+
+        @Override
+        public void setPixels(int[] pixels, int offset, int stride, int x, int y, int w, int h) {
+            for (int row = 0; row < h; row++) {
+                System.arraycopy(pixels, offset + row * stride, image, (y + row) * width + x, w);
+            }
+        }
+    }
+
+    // Pixels of one tile, raw or deflated.
+    private static final class Tile {
+        private final int length;
+        private int[] pixels;
+        private byte[] deflated;
+        // given to the compressor once, whether it shrinks or not. used by the ui thread only.
+        boolean queued;
+        // out of the history, so its bytes are not counted any more.
+        private boolean dropped;
+
+        Tile(int[] pixels) {
+            this.pixels = pixels;
+            length = pixels.length;
+        }
+
+        synchronized int getBytes() {
+            return pixels != null ? length * 4 : deflated.length;
+        }
+
+        // returns bytes it had. a deflate running meanwhile leaves it as is.
+        synchronized int drop() {
+            dropped = true;
+            return getBytes();
+        }
+
+        synchronized int[] getPixels() {
+            if (pixels != null) {
+                return pixels;
+            }
+            byte[] bytes = new byte[length * 4];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(deflated);
+                inflater.inflate(bytes);
+            } catch (DataFormatException e) {
+                throw new IllegalStateException("broken tile", e);
+            } finally {
+                inflater.end();
+            }
+            int[] p = new int[length];
+            for (int i = 0, b = 0; i < length; i++, b += 4) {
+                p[i] = (bytes[b] & 0xff) << 24 | (bytes[b + 1] & 0xff) << 16 | (bytes[b + 2] & 0xff) << 8
+                        | (bytes[b + 3] & 0xff);
+            }
+            // kept deflated, so the budget stays as accounted.
+            return p;
+        }
+
+        // returns bytes saved
+        int deflate(Deflater deflater, byte[] buffer) {
+            int[] p;
+            synchronized (this) {
+                if (pixels == null || dropped) {
+                    return 0;
+                }
+                p = pixels;
+            }
+            byte[] bytes = new byte[length * 4];
+            for (int i = 0, b = 0; i < length; i++, b += 4) {
+                int c = p[i];
+                bytes[b] = (byte) (c >>> 24);
+                bytes[b + 1] = (byte) (c >> 16);
+                bytes[b + 2] = (byte) (c >> 8);
+                bytes[b + 3] = (byte) c;
+            }
+            deflater.reset();
+            deflater.setInput(bytes);
+            deflater.finish();
+            int size = 0;
+            while (!deflater.finished()) {
+                if (size == buffer.length) {
+                    return 0; // doesn't compress
+                }
+                size += deflater.deflate(buffer, size, buffer.length - size);
+            }
+            synchronized (this) {
+                if (dropped) {
+                    return 0;
+                }
+                deflated = Arrays.copyOf(buffer, size);
+                pixels = null;
+            }
+            return length * 4 - size;
+        }
+    }
+
+    // a stroke. before[k] and after[k] are states of tiles[k].
+    private static final class Step {
+        final int[] tiles;
+        final Tile[] before;
+        final Tile[] after;
+
+        Step(int[] tiles, Tile[] before, Tile[] after) {
+            this.tiles = tiles;
+            this.before = before;
+            this.after = after;
+        }
+    }
+
+    public interface RectCallback {
+        void onRect(int left, int top, int right, int bottom);
+    }
+
+    private final Pixels image;
+    private final int width;
+    private final int height;
+    private final int tileSize;
+    private final int columns;
+    private final int rows;
+
+    // state of each tile now, or null if never touched(then it is read from the image).
+    private final Tile[] current;
+    // tiles touched by the current stroke and their states before it
+    private final List<Integer> touched = new ArrayList<Integer>();
+    private final List<Tile> touchedBefore = new ArrayList<Tile>();
+    private final boolean[] isTouched;
+
+    private final List<Step> undoSteps = new ArrayList<Step>();
+    private final List<Step> redoSteps = new ArrayList<Step>();
+
+    private final long memoryBudget;
+    // bytes of all tiles in steps and current, guarded by this.
+    private long memoryBytes;
+    // raw bytes of tiles given to the compressor and not done yet, guarded by this.
+    private long pendingBytes;
+
+    private final ExecutorService compressor;
+
+    public TileHistory(Pixels image, int width, int height, int tileSize, long memoryBudget) {
+        this.image = image;
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.memoryBudget = memoryBudget;
+        columns = (width + tileSize - 1) / tileSize;
+        rows = (height + tileSize - 1) / tileSize;
+        current = new Tile[columns * rows];
+        isTouched = new boolean[columns * rows];
+        compressor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "TileHistory");
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+    }
+
+    public TileHistory(Pixels image, int width, int height) {
+        this(image, width, height, TileCompositor.DEFAULT_TILE_SIZE, DEFAULT_MEMORY_BUDGET);
+    }
+
+    // Must be called before pixels of rect change in the current stroke.
+    public void touch(int left, int top, int right, int bottom) {
+        left = Math.max(left, 0);
+        top = Math.max(top, 0);
+        right = Math.min(right, width);
+        bottom = Math.min(bottom, height);
+        if (left >= right || top >= bottom) {
+            return;
+        }
+        for (int r = top / tileSize; r <= (bottom - 1) / tileSize; r++) {
+            for (int c = left / tileSize; c <= (right - 1) / tileSize; c++) {
+                int i = r * columns + c;
+                if (isTouched[i]) {
+                    continue;
+                }
+                isTouched[i] = true;
+                Tile before = current[i];
+                if (before == null) {
+                    before = readTile(i);
+                    current[i] = before;
+                    addBytes(before.getBytes());
+                }
+                touched.add(i);
+                touchedBefore.add(before);
+            }
+        }
+    }
+
+    // Records the touched tiles as one step. Redo steps are dropped.
+    public void endStroke() {
+        int n = touched.size();
+        if (n == 0) {
+            return;
+        }
+        int[] tiles = new int[n];
+        Tile[] before = new Tile[n];
+        Tile[] after = new Tile[n];
+        long bytes = 0;
+        for (int k = 0; k < n; k++) {
+            int i = touched.get(k);
+            tiles[k] = i;
+            before[k] = touchedBefore.get(k);
+            after[k] = readTile(i);
+            current[i] = after[k];
+            isTouched[i] = false;
+            bytes += after[k].getBytes();
+        }
+        touched.clear();
+        touchedBefore.clear();
+        for (Step step : redoSteps) {
+            // after of a redo step is not shared with anything else.
+            bytes -= drop(step.after);
+        }
+        redoSteps.clear();
+        undoSteps.add(new Step(tiles, before, after));
+        addBytes(bytes);
+        trim();
+    }
+
+    public boolean canUndo() {
+        return !undoSteps.isEmpty();
+    }
+
+    public boolean canRedo() {
+        return !redoSteps.isEmpty();
+    }
+
+    // Writes back tiles of the last stroke. A stroke in progress is ended first.
+    public boolean undo(RectCallback callback) {
+        endStroke();
+        if (undoSteps.isEmpty()) {
+            return false;
+        }
+        Step step = undoSteps.remove(undoSteps.size() - 1);
+        writeTiles(step.tiles, step.before, callback);
+        redoSteps.add(step);
+        return true;
+    }
+
+    public boolean redo(RectCallback callback) {
+        endStroke();
+        if (redoSteps.isEmpty()) {
+            return false;
+        }
+        Step step = redoSteps.remove(redoSteps.size() - 1);
+        writeTiles(step.tiles, step.after, callback);
+        undoSteps.add(step);
+        return true;
+    }
+
+    public synchronized long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    public int getUndoCount() {
+        return undoSteps.size();
+    }
+
+    // Stops the compressor and lets go of all tiles, e.g. when the image goes away. Don't use this after.
+    // tiles still queued are dropped, so the compressor skips them.
+    public void release() {
+        compressor.shutdownNow();
+        dropSteps(undoSteps);
+        dropSteps(redoSteps);
+        touched.clear();
+        touchedBefore.clear();
+        Arrays.fill(isTouched, false);
+        Arrays.fill(current, null);
+        synchronized (this) {
+            memoryBytes = 0;
+            pendingBytes = 0;
+        }
+    }
+
+    private void writeTiles(int[] tiles, Tile[] states, RectCallback callback) {
+        for (int k = 0; k < tiles.length; k++) {
+            int i = tiles[k];
+            int left = (i % columns) * tileSize;
+            int top = (i / columns) * tileSize;
+            int w = Math.min(tileSize, width - left);
+            int h = Math.min(tileSize, height - top);
+            image.setPixels(states[k].getPixels(), 0, w, left, top, w, h);
+            current[i] = states[k];
+            if (callback != null) {
+                callback.onRect(left, top, left + w, top + h);
+            }
+        }
+    }
+
+    private Tile readTile(int i) {
+        int left = (i % columns) * tileSize;
+        int top = (i / columns) * tileSize;
+        int w = Math.min(tileSize, width - left);
+        int h = Math.min(tileSize, height - top);
+        int[] pixels = new int[w * h];
+        image.getPixels(pixels, 0, w, left, top, w, h);
+        return new Tile(pixels);
+    }
+
+    private synchronized void addBytes(long bytes) {
+        memoryBytes += bytes;
+    }
+
+    private synchronized void addPendingBytes(long bytes) {
+        pendingBytes += bytes;
+    }
+
+    // memory if the compressor saved all it has yet to do
+    private synchronized long getBytesAfterPending() {
+        return memoryBytes - pendingBytes;
+    }
+
+    private static long drop(Tile[] tiles) {
+        long bytes = 0;
+        for (Tile tile : tiles) {
+            bytes += tile.drop();
+        }
+        return bytes;
+    }
+
+    private static void dropSteps(List<Step> steps) {
+        for (Step step : steps) {
+            drop(step.before);
+            drop(step.after);
+        }
+        steps.clear();
+    }
+
+    // Over budget : deflate tiles of old steps in background, each tile once(noise doesn't shrink).
+    // The oldest steps are dropped now while it would be over even if all pending tiles shrank to nothing,
+    // so the history stays within the budget plus the tiles the compressor hasn't done yet.
+    private void trim() {
+        if (getMemoryBytes() <= memoryBudget) {
+            return;
+        }
+        final List<Tile> raw = new ArrayList<Tile>();
+        long rawBytes = 0;
+        // oldest first. current tiles are left raw for the next stroke and undo.
+        for (Step step : undoSteps) {
+            for (int k = 0; k < step.tiles.length; k++) {
+                Tile tile = step.before[k];
+                if (!tile.queued && current[step.tiles[k]] != tile) {
+                    tile.queued = true;
+                    raw.add(tile);
+                    rawBytes += tile.getBytes();
+                }
+            }
+        }
+        if (!raw.isEmpty()) {
+            addPendingBytes(rawBytes);
+            compressor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+                    byte[] buffer = new byte[tileSize * tileSize * 4];
+                    try {
+                        // all of them, since they are not queued again.
+                        for (Tile tile : raw) {
+                            addBytes(-tile.deflate(deflater, buffer));
+                            addPendingBytes(-tile.length * 4L);
+                        }
+                    } finally {
+                        deflater.end();
+                    }
+                }
+            });
+        }
+        while (getBytesAfterPending() > memoryBudget && undoSteps.size() > 1) {
+            // before of the oldest step is not shared with anything else.
+            Step oldest = undoSteps.remove(0);
+            addBytes(-drop(oldest.before));
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package com.easetheworld.renderscript.blendmode;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs a task over the tiles of a rect on an executor.
+// - tiles : getTileSize gives tiles whose pixels of all buffers fit in L2 cache, so a tile is
+//   written while what it read is still in cache.
+// - balance : workers take the next tile of a job from an atomic counter, so a worker done with
+//   cheap tiles(e.g. empty drawing) takes more, instead of a fixed band per thread.
+//   ForkJoinPool would do the same by stealing, but it is API 21.
+// - priority : workers take tiles of the highest priority job first, so e.g. a preview runs
+//   ahead of a background refine on the same scheduler, from the next tile.
+// - cancel : Job.cancel stops tiles from being taken. Tiles already running are finished.
+// The thread in Job.await takes tiles of the job too, so await from a worker doesn't deadlock.
+//
+// Halo : filters which read neighbors(BLUR2, MOSAIC) read whole image buffers(the blur, the summed
+// area table) completed by an earlier job, so a tile never reads pixels another tile is writing.
+public class TileScheduler {
+    public static final int PRIORITY_BACKGROUND = -10;
+    public static final int PRIORITY_NORMAL = 0;
+    public static final int PRIORITY_FOREGROUND = 10;
+
+    // L2 cache per core, typical of mobile and server cpus
+    public static final int DEFAULT_CACHE_BYTES = 256 * 1024;
+
+    private static TileScheduler sDefault;
+
+    public interface TileTask {
+        void run(int left, int top, int right, int bottom);
+    }
+
+    public static final class Job {
+        private final TileScheduler scheduler;
+        private final TileTask task;
+        private final int priority;
+        private final long sequence;
+        private final int left;
+        private final int top;
+        private final int right;
+        private final int bottom;
+        private final int tileWidth;
+        private final int tileHeight;
+        private final int columns;
+        private final int tileCount;
+
+        private final AtomicInteger next = new AtomicInteger();
+        private volatile boolean cancelled;
+        // guarded by this
+        private int finished;
+        private Throwable failure;
+
+        Job(TileScheduler scheduler, TileTask task, int priority, long sequence, int left, int top, int right,
+                int bottom, int tileWidth, int tileHeight) {
+            this.scheduler = scheduler;
+            this.task = task;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.left = left;
+            this.top = top;
+            this.right = right;
+            this.bottom = bottom;
+            this.tileWidth = tileWidth;
+            this.tileHeight = tileHeight;
+            columns = (right - left + tileWidth - 1) / tileWidth;
+            tileCount = columns * ((bottom - top + tileHeight - 1) / tileHeight);
+        }
+
+        public int getTileCount() {
+            return tileCount;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public void cancel() {
+            cancelled = true;
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+
+        // Runs tiles not taken yet, then waits for tiles running on workers.
+        // Returns false if cancelled, then some tiles didn't run. A failure of a tile is thrown.
+        public boolean await() {
+            while (runNextTile()) {
+            }
+            // no worker may have come for it.
+            scheduler.remove(this);
+            synchronized (this) {
+                try {
+                    while (!isDone()) {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("interrupted while filtering", e);
+                }
+                if (failure instanceof RuntimeException) {
+                    throw (RuntimeException) failure;
+                } else if (failure instanceof Error) {
+                    throw (Error) failure;
+                } else if (failure != null) {
+                    throw new IllegalStateException(failure);
+                }
+                return !cancelled;
+            }
+        }
+
+        // all tiles ran, or all taken tiles are finished after cancel.
+        private boolean isDone() {
+            return finished == tileCount || (cancelled && finished >= Math.min(next.get(), tileCount));
+        }
+
+        // false if there is no tile to take, or cancelled
+        boolean runNextTile() {
+            int i = next.getAndIncrement();
+            if (i >= tileCount) {
+                return false;
+            }
+            Throwable error = null;
+            if (!cancelled) {
+                int l = left + (i % columns) * tileWidth;
+                int t = top + (i / columns) * tileHeight;
+                try {
+                    task.run(l, t, Math.min(l + tileWidth, right), Math.min(t + tileHeight, bottom));
+                } catch (Throwable e) {
+                    error = e;
+                }
+            }
+            synchronized (this) {
+                finished++;
+                if (error != null && failure == null) {
+                    failure = error;
+                    cancelled = true;
+                }
+                if (isDone()) {
+                    notifyAll();
+                }
+            }
+            return !cancelled;
+        }
+
+        private boolean isTaken() {
+            return cancelled || next.get() >= tileCount;
+        }
+
+        // higher priority first, then older first
+        private boolean isBefore(Job other) {
+            return priority != other.priority ? priority > other.priority : sequence < other.sequence;
+        }
+    }
+
+    private final ExecutorService executor;
+    private final int parallelism;
+
+    // jobs with tiles to take, in order of isBefore. replaced, not modified, so workers read it without lock.
+    private volatile Job[] queue = new Job[0];
+    // guarded by this
+    private int workers;
+    private long sequence;
+
+    private final Runnable worker = new Runnable() {
+        @Override
+        public void run() {
+            work();
+        }
+    };
+
+    // parallelism is the number of threads of executor. executor is not shut down by this.
+    // executor may be null, then all tiles run on the thread in await, e.g. for a job which is
+    // itself a tile of another job.
+    public TileScheduler(ExecutorService executor, int parallelism) {
+        this.executor = executor;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    // shared by CpuFilterScripts made without an executor, so their priorities compare.
+    public static synchronized TileScheduler getDefault() {
+        if (sDefault == null) {
+            int threads = Runtime.getRuntime().availableProcessors();
+            sDefault = new TileScheduler(Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                private int count;
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "TileScheduler-" + count++);
+                    t.setDaemon(true);
+                    return t;
+                }
+            }), threads);
+        }
+        return sDefault;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    // Side of square tiles whose bytesPerPixel(sum over the buffers a tile touches) fit in cacheBytes.
+    // a power of 2, at least 16.
+    public static int getTileSize(int bytesPerPixel, int cacheBytes) {
+        int size = 16;
+        while ((long) size * 2 * size * 2 * bytesPerPixel <= cacheBytes) {
+            size *= 2;
+        }
+        return size;
+    }
+
+    // Starts task over tiles of rect. Call await on the job to wait for it.
+    public Job submit(int left, int top, int right, int bottom, int tileWidth, int tileHeight, int priority,
+            TileTask task) {
+        if (tileWidth < 1 || tileHeight < 1) {
+            throw new IllegalArgumentException("tile must be positive : " + tileWidth + "x" + tileHeight);
+        }
+        right = Math.max(left, right);
+        bottom = Math.max(top, bottom);
+        Job job;
+        int start;
+        synchronized (this) {
+            job = new Job(this, task, priority, sequence++, left, top, right, bottom, tileWidth, tileHeight);
+            if (job.tileCount == 0) {
+                return job;
+            }
+            Job[] q = queue;
+            Job[] newQueue = new Job[q.length + 1];
+            int i = 0;
+            while (i < q.length && q[i].isBefore(job)) {
+                newQueue[i] = q[i];
+                i++;
+            }
+            newQueue[i] = job;
+            System.arraycopy(q, i, newQueue, i + 1, q.length - i);
+            queue = newQueue;
+            // the thread which awaits takes a tile as well
+            start = executor == null ? 0 : Math.min(parallelism - workers, job.tileCount - 1);
+            workers += Math.max(start, 0);
+        }
+        for (int i = 0; i < start; i++) {
+            try {
+                executor.execute(worker);
+            } catch (RejectedExecutionException e) {
+                // await runs the tiles then.
+                synchronized (this) {
+                    workers -= start - i;
+                }
+                break;
+            }
+        }
+        return job;
+    }
+
+    // submit and await
+    public boolean run(int left, int top, int right, int bottom, int tileWidth, int tileHeight, int priority,
+            TileTask task) {
+        return submit(left, top, right, bottom, tileWidth, tileHeight, priority, task).await();
+    }
+
+    private void work() {
+        while (true) {
+            Job[] q = queue;
+            Job job = q.length > 0 ? q[0] : null;
+            if (job == null || !job.runNextTile()) {
+                synchronized (this) {
+                    if (job != null) {
+                        remove(job);
+                    }
+                    if (queue.length == 0) {
+                        workers--;
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    // removes job and jobs with no tile to take
+    private synchronized void remove(Job job) {
+        Job[] q = queue;
+        int count = 0;
+        for (Job j : q) {
+            if (j != job && !j.isTaken()) {
+                count++;
+            }
+        }
+        Job[] newQueue = new Job[count];
+        int i = 0;
+        for (Job j : q) {
+            if (j != job && !j.isTaken()) {
+                newQueue[i++] = j;
+            }
+        }
+        queue = newQueue;
+    }
+}
@@ -0,0 +1,201 @@
+package com.easetheworld.renderscript.blendmode;
+
+import com.easetheworld.renderscript.blendmode.FilterScript.FilterType;
+
+// HUE, SATURATION, COLOR and VALUE split into what they need of the layer and the per pixel rest.
+// precompute converts the layer color once(hsv, or rgb order and saturation for COLOR),
+// like ColorConverter.getPrecomputedData for the replace color, and process converts only the input.
+// A brush layer is one color, so CpuFilterScript precomputes when the layer color changes, not per pixel.
+// ProcessFunc runs the same code, so results are the same.
+enum UniformLayerBlend {
+    // data : h, s, v of layer, then sector and fraction of h for hsvToRgb
+    HUE {
+        @Override
+        void precompute(float r, float g, float b, float[] data) {
+            RgbHsv.rgbToHsv(r, g, b, data);
+            float h = data[0] == 6f ? 0f : data[0];
+            data[3] = (int) h;
+            data[4] = h - (int) h;
+        }
+
+        // Only s and v of the input are needed, and the hue of hsvToRgb is the layer's,
+        // so this is RgbHsv without the hue of the input and the sector switch per pixel.
+        @Override
+        void process(float[] in, float[] data, float[] hsv, float[] out) {
+            if (!(data[1] > 0f)) {
+                RgbHsv.rgbToHsv(in[0], in[1], in[2], hsv);
+                RgbHsv.hsvToRgb(hsv[0], hsv[1], hsv[2], out);
+                return;
+            }
+            float v = Math.max(Math.max(in[0], in[1]), in[2]);
+            float delta = v - Math.min(Math.min(in[0], in[1]), in[2]);
+            if (!(delta > 0f)) {
+                out[0] = v;
+                out[1] = v;
+                out[2] = v;
+                return;
+            }
+            float s = delta / v;
+            float f = data[4];
+            float w = v * (1f - s);
+            float q = v * (1f - s * f);
+            float t = v * (1f - s * (1f - f));
+            switch ((int) data[3]) {
+            case 0:
+                out[0] = v;
+                out[1] = t;
+                out[2] = w;
+                break;
+            case 1:
+                out[0] = q;
+                out[1] = v;
+                out[2] = w;
+                break;
+            case 2:
+                out[0] = w;
+                out[1] = v;
+                out[2] = t;
+                break;
+            case 3:
+                out[0] = w;
+                out[1] = q;
+                out[2] = v;
+                break;
+            case 4:
+                out[0] = t;
+                out[1] = w;
+                out[2] = v;
+                break;
+            default:
+                out[0] = v;
+                out[1] = w;
+                out[2] = q;
+                break;
+            }
+        }
+    },
+    SATURATION {
+        @Override
+        void precompute(float r, float g, float b, float[] data) {
+            RgbHsv.rgbToHsv(r, g, b, data);
+        }
+
+        @Override
+        void process(float[] in, float[] data, float[] hsv, float[] out) {
+            RgbHsv.rgbToHsv(in[0], in[1], in[2], hsv);
+            RgbHsv.hsvToRgb(hsv[0], data[1], hsv[2], out); // replace s
+        }
+    },
+    // data : max, mid, min index of layer rgb, saturation(-1 if gray), mid - min, max - min
+    COLOR {
+        @Override
+        void precompute(float r, float g, float b, float[] data) {
+            // find min, mid, max. index 0, 1, 2 is r, g, b.
+            int maxIndex, midIndex, minIndex;
+            if (r > g) {
+                if (g > b) {
+                    maxIndex = 0;
+                    midIndex = 1;
+                    minIndex = 2;
+                } else {
+                    minIndex = 1;
+                    if (r > b) {
+                        maxIndex = 0;
+                        midIndex = 2;
+                    } else {
+                        maxIndex = 2;
+                        midIndex = 0;
+                    }
+                }
+            } else {
+                if (r > b) {
+                    maxIndex = 1;
+                    midIndex = 0;
+                    minIndex = 2;
+                } else {
+                    minIndex = 0;
+                    if (g > b) {
+                        maxIndex = 1;
+                        midIndex = 2;
+                    } else {
+                        maxIndex = 2;
+                        midIndex = 1;
+                    }
+                }
+            }
+            float layMax = component(r, g, b, maxIndex);
+            float layMid = component(r, g, b, midIndex);
+            float layMin = component(r, g, b, minIndex);
+            float layDelta = layMax - layMin;
+            data[0] = maxIndex;
+            data[1] = midIndex;
+            data[2] = minIndex;
+            data[3] = layMax == layMin ? -1f : layDelta / (1f - Math.abs(layMax + layMin - 1f));
+            data[4] = layMid - layMin;
+            data[5] = layDelta;
+        }
+
+        @Override
+        void process(float[] in, float[] data, float[] hsv, float[] out) {
+            // dstHSL = {layH, layS, srcL} (replace only h and s)
+            float srcMax = Math.max(Math.max(in[0], in[1]), in[2]);
+            float srcMin = Math.min(Math.min(in[0], in[1]), in[2]);
+            float srcL = (srcMax + srcMin) / 2f;
+            float layS = data[3];
+            if (layS < 0f) {
+                out[0] = srcL;
+                out[1] = srcL;
+                out[2] = srcL;
+                return;
+            }
+
+            // dstDelta = dstMax - dstMin
+            float dstDelta = (1f - Math.abs(2f * srcL - 1f)) * layS;
+            float dstMin = srcL - dstDelta / 2f;
+            float dstMax = dstDelta + dstMin;
+            float dstMid = dstDelta * data[4] / data[5] + dstMin;
+
+            // rgb order of dstRGB is same as layRGB.
+            out[(int) data[0]] = dstMax;
+            out[(int) data[1]] = dstMid;
+            out[(int) data[2]] = dstMin;
+        }
+    },
+    VALUE {
+        @Override
+        void precompute(float r, float g, float b, float[] data) {
+            RgbHsv.rgbToHsv(r, g, b, data);
+        }
+
+        @Override
+        void process(float[] in, float[] data, float[] hsv, float[] out) {
+            RgbHsv.rgbToHsv(in[0], in[1], in[2], hsv);
+            RgbHsv.hsvToRgb(hsv[0], hsv[1], data[2], out); // replace v
+        }
+    };
+
+    static final int DATA_LENGTH = 6;
+
+    private static float component(float r, float g, float b, int index) {
+        return index == 0 ? r : (index == 1 ? g : b);
+    }
+
+    // layer r, g, b : 0~1
+    abstract void precompute(float r, float g, float b, float[] data);
+
+    // hsv is scratch of 3
+    abstract void process(float[] in, float[] data, float[] hsv, float[] out);
+
+    private static final UniformLayerBlend[] TABLE = new UniformLayerBlend[FilterType.values().length];
+
+    static {
+        for (UniformLayerBlend blend : values()) {
+            TABLE[FilterType.valueOf(blend.name()).ordinal()] = blend;
+        }
+    }
+
+    // null if type is not one of them
+    static UniformLayerBlend get(FilterType type) {
+        return TABLE[type.ordinal()];
+    }
+}
@@ -0,0 +1,116 @@
+package com.easetheworld.renderscript.blendmode;
+
+// Planes of a YUV 4:2:0 frame as the camera gives them, laid out like YUV_420_888.
+// u and v are subsampled by 2 in both directions. pixelStride of u, v is 1(planar, I420)
+// or 2(interleaved, NV21 / NV12), and they may share one array with the y plane.
+// Converted to ARGB row by row by the filter pass itself, so no full RGB copy is made.
+public class YuvFrame {
+    public final int width;
+    public final int height;
+
+    public final byte[] y;
+    public final int yOffset;
+    public final int yRowStride;
+
+    public final byte[] u;
+    public final int uOffset;
+    public final byte[] v;
+    public final int vOffset;
+    public final int uvRowStride;
+    public final int uvPixelStride;
+
+    public YuvFrame(int width, int height, byte[] y, int yOffset, int yRowStride, byte[] u, int uOffset, byte[] v,
+            int vOffset, int uvRowStride, int uvPixelStride) {
+        this.width = width;
+        this.height = height;
+        this.y = y;
+        this.yOffset = yOffset;
+        this.yRowStride = yRowStride;
+        this.u = u;
+        this.uOffset = uOffset;
+        this.v = v;
+        this.vOffset = vOffset;
+        this.uvRowStride = uvRowStride;
+        this.uvPixelStride = uvPixelStride;
+    }
+
+    // default format of Camera preview callbacks : y plane, then interleaved v, u.
+    public static YuvFrame fromNv21(byte[] data, int width, int height) {
+        int ySize = width * height;
+        int chromaWidth = (width + 1) / 2;
+        return new YuvFrame(width, height, data, 0, width, data, ySize + 1, data, ySize, chromaWidth * 2, 2);
+    }
+
+    // y plane, then u plane, then v plane.
+    public static YuvFrame fromI420(byte[] data, int width, int height) {
+        int ySize = width * height;
+        int chromaWidth = (width + 1) / 2;
+        int chromaSize = chromaWidth * ((height + 1) / 2);
+        return new YuvFrame(width, height, data, 0, width, data, ySize, data, ySize + chromaSize, chromaWidth, 1);
+    }
+
+    // Pixels [left, right) of row y into dst from dstOffset, as opaque ARGB.
+    // BT.601 limited range, same as ScriptIntrinsicYuvToRGB and android.graphics.YuvImage.
+    public void convertRow(int row, int left, int right, int[] dst, int dstOffset) {
+        int yBase = yOffset + row * yRowStride;
+        int uvRow = (row >> 1) * uvRowStride;
+        int uBase = uOffset + uvRow;
+        int vBase = vOffset + uvRow;
+        for (int x = left; x < right; x++) {
+            int uv = (x >> 1) * uvPixelStride;
+            dst[dstOffset++] = toArgb(y[yBase + x] & 0xff, u[uBase + uv] & 0xff, v[vBase + uv] & 0xff);
+        }
+    }
+
+    public static int toArgb(int y, int u, int v) {
+        int c = 298 * (y - 16) + 128;
+        int d = u - 128;
+        int e = v - 128;
+        int r = clamp((c + 409 * e) >> 8);
+        int g = clamp((c - 100 * d - 208 * e) >> 8);
+        int b = clamp((c + 516 * d) >> 8);
+        return 0xff000000 | (r << 16) | (g << 8) | b;
+    }
+
+    private static int clamp(int v) {
+        return v < 0 ? 0 : (v > 255 ? 255 : v);
+    }
+
+    // NV21 of argb, the inverse of toArgb(within rounding, chroma averaged over 2x2).
+    // For recording test frames on the jvm.
+    public static byte[] encodeNv21(int[] argb, int width, int height) {
+        int ySize = width * height;
+        int chromaWidth = (width + 1) / 2;
+        byte[] data = new byte[ySize + chromaWidth * 2 * ((height + 1) / 2)];
+        for (int j = 0; j < height; j++) {
+            for (int i = 0; i < width; i++) {
+                int p = argb[j * width + i];
+                int r = (p >> 16) & 0xff;
+                int g = (p >> 8) & 0xff;
+                int b = p & 0xff;
+                data[j * width + i] = (byte) (((66 * r + 129 * g + 25 * b + 128) >> 8) + 16);
+            }
+        }
+        for (int j = 0; j < height; j += 2) {
+            for (int i = 0; i < width; i += 2) {
+                int r = 0, g = 0, b = 0, n = 0;
+                for (int dy = 0; dy < 2 && j + dy < height; dy++) {
+                    for (int dx = 0; dx < 2 && i + dx < width; dx++) {
+                        int p = argb[(j + dy) * width + i + dx];
+                        r += (p >> 16) & 0xff;
+                        g += (p >> 8) & 0xff;
+                        b += p & 0xff;
+                        n++;
+                    }
+                }
+                r /= n;
+                g /= n;
+                b /= n;
+                int uv = ySize + (j / 2) * chromaWidth * 2 + (i / 2) * 2;
+                data[uv] = (byte) (((112 * r - 94 * g - 18 * b + 128) >> 8) + 128);
+                data[uv + 1] = (byte) (((-38 * r - 74 * g + 112 * b + 128) >> 8) + 128);
+            }
+        }
+        return data;
+    }
+}
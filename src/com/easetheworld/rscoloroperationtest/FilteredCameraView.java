@@ -1,19 +1,29 @@
 package com.easetheworld.rscoloroperationtest;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
 
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
 import android.util.AttributeSet;
+import android.util.Log;
 import android.view.TextureView;
 import android.widget.FrameLayout;
 import android.widget.ImageView;
 
 import com.easetheworld.renderscript.blendmode.FilterScript;
+import com.easetheworld.renderscript.blendmode.FramePipeline;
+import com.easetheworld.renderscript.blendmode.FrameSource;
 
 public class FilteredCameraView extends FrameLayout implements TextureView.SurfaceTextureListener {
+    private static final String TAG = "FilteredCameraView";
+
+    // stats are logged every this many processed frames
+    private static final int STATS_INTERVAL = 100;
 
     private Camera mCamera;
     private Bitmap mSrcBitmap;
@@ -24,6 +34,17 @@ public class FilteredCameraView extends FrameLayout implements TextureView.Surfa
 
     private FilterScript mFilterScript;
 
+    // frames go from mFrameSource through mPipeline to mFilterScript on the worker thread.
+    private FramePipeline mPipeline;
+    private FrameSource mFrameSource;
+    private final TextureFrameSource mTextureFrameSource = new TextureFrameSource();
+    // frames of mTextureFrameSource are in these instead of their pixels. one per frame buffer,
+    // so the camera image goes to the script through one Bitmap without a copy to and from pixels.
+    private final Map<FramePipeline.Frame, Bitmap> mFrameBitmaps =
+            Collections.synchronizedMap(new IdentityHashMap<FramePipeline.Frame, Bitmap>());
+    // for the pixels of other sources. used only by the worker
+    private Bitmap mWorkBitmap;
+
     public FilteredCameraView(Context context) {
         super(context);
         init();
@@ -39,6 +60,16 @@ public class FilteredCameraView extends FrameLayout implements TextureView.Surfa
         init();
     }
 
+    // Replaces the camera preview as the source of frames, e.g. with SyntheticFrameSource.
+    // must be called before the surface texture is available.
+    public void setFrameSource(FrameSource source) {
+        mFrameSource = source;
+    }
+
+    public FramePipeline.Stats getStats() {
+        return mPipeline == null ? null : mPipeline.getStats();
+    }
+
     public Bitmap getBitmap() {
         return mDstBitmap.copy(mDstBitmap.getConfig(), false);
     }
@@ -66,10 +97,28 @@ public class FilteredCameraView extends FrameLayout implements TextureView.Surfa
         mDstBitmap = mSrcBitmap.copy(Bitmap.Config.ARGB_8888, true);
         mFilterScript = new FilterScript(getContext(), mSrcBitmap);
         mImageView.setImageBitmap(mDstBitmap);
+
+        if (mFrameSource == null) {
+            mFrameSource = mTextureFrameSource;
+        }
+        // frames of the camera are in mFrameBitmaps, so they need no pixels.
+        boolean camera = mFrameSource == mTextureFrameSource;
+        if (!camera) {
+            mWorkBitmap = mSrcBitmap.copy(Bitmap.Config.ARGB_8888, true);
+        }
+        mPipeline = new FramePipeline(mSrcBitmap.getWidth(), mSrcBitmap.getHeight(),
+                FramePipeline.DEFAULT_CAPACITY, !camera, mFrameProcessor);
+        mPipeline.start();
+        mFrameSource.start(mPipeline);
     }
 
     @Override
     public boolean onSurfaceTextureDestroyed(SurfaceTexture surface) {
+        mFrameSource.stop();
+        mPipeline.stop();
+        mFrameBitmaps.clear();
+        mWorkBitmap = null;
+        Log.i(TAG, mPipeline.getStats().toString());
         mCamera.stopPreview();
         mCamera.release();
 
@@ -83,8 +132,57 @@ public class FilteredCameraView extends FrameLayout implements TextureView.Surfa
 
     @Override
     public void onSurfaceTextureUpdated(SurfaceTexture surface) {
-            mTextureView.getBitmap(mSrcBitmap);
-            mFilterScript.setInputBitmap(mSrcBitmap);
-            mImageView.invalidate();
+        mTextureFrameSource.onTextureUpdated();
+    }
+
+    // runs on the worker thread of mPipeline
+    private final FramePipeline.Processor mFrameProcessor = new FramePipeline.Processor() {
+        @Override
+        public void process(FramePipeline.Frame frame) {
+            if (frame.pixels == null) {
+                mFilterScript.setInputBitmap(mFrameBitmaps.get(frame));
+            } else {
+                mWorkBitmap.setPixels(frame.pixels, 0, frame.width, 0, 0, frame.width, frame.height);
+                mFilterScript.setInputBitmap(mWorkBitmap);
+            }
+            mImageView.postInvalidate();
+            if (frame.sequence % STATS_INTERVAL == 0) {
+                Log.i(TAG, mPipeline.getStats().toString());
+            }
+        }
+    };
+
+    // Frames of the camera preview. TextureView.getBitmap must be called on the ui thread,
+    // so only the copy to the Bitmap of a frame buffer is done here and the rest goes to the worker.
+    // frames have no pixels.
+    private class TextureFrameSource implements FrameSource {
+        private FramePipeline mTarget;
+
+        @Override
+        public void start(FramePipeline pipeline) {
+            mTarget = pipeline;
+        }
+
+        @Override
+        public void stop() {
+            mTarget = null;
+        }
+
+        void onTextureUpdated() {
+            if (mTarget == null) {
+                return;
+            }
+            FramePipeline.Frame frame = mTarget.obtainFrame();
+            if (frame == null) {
+                return;
+            }
+            Bitmap bitmap = mFrameBitmaps.get(frame);
+            if (bitmap == null) {
+                bitmap = Bitmap.createBitmap(frame.width, frame.height, Bitmap.Config.ARGB_8888);
+                mFrameBitmaps.put(frame, bitmap);
+            }
+            mTextureView.getBitmap(bitmap);
+            mTarget.submit(frame);
+        }
     }
 }
@@ -1,5 +1,7 @@
 package com.easetheworld.rscoloroperationtest;
 
+import java.util.Arrays;
+
 import android.app.Activity;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
@@ -12,6 +14,8 @@ import android.graphics.PorterDuff;
 import android.graphics.PorterDuffXfermode;
 import android.os.Bundle;
 import android.os.SystemClock;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
@@ -22,8 +26,15 @@ import android.widget.ListView;
 import android.widget.SeekBar;
 import android.widget.TextView;
 
+import com.colorspace.util.ColorBenchmark;
+import com.easetheworld.renderscript.blendmode.CpuFilterScript;
+import com.easetheworld.renderscript.blendmode.FilterMetrics;
 import com.easetheworld.renderscript.blendmode.FilterScript;
 import com.easetheworld.renderscript.blendmode.FilterScript.FilterType;
+import com.easetheworld.renderscript.blendmode.NoiseBenchmark;
+import com.easetheworld.renderscript.blendmode.ProgressiveRenderer;
+import com.easetheworld.renderscript.blendmode.TileCompositor;
+import com.easetheworld.renderscript.blendmode.TileHistory;
 
 public class MainActivity extends Activity {
 
@@ -42,6 +53,29 @@ public class MainActivity extends Activity {
     private float blurSize;
 
     private FilterScript mFilterScript;
+    // dirty rects of move events are collected here and filtered once per frame.
+    private TileCompositor mCompositor;
+    private boolean mFrameScheduled;
+
+    private static final int MENU_BENCHMARK = 1;
+    private static final int MENU_PROGRESSIVE = 2;
+    private static final int MENU_UNDO = 3;
+    private static final int MENU_REDO = 4;
+    private static final int MENU_METRICS = 5;
+
+    // tiles of resultBitmap changed by each stroke
+    private TileHistory mHistory;
+
+    // progressive mode : strokes are previewed at the view scale by the cpu engine,
+    // and refined at full resolution in background when the stroke ends.
+    private ProgressiveRenderer mProgressive;
+    // of all progressive renderers, since one is made each time the mode is turned on.
+    private final FilterMetrics mPreviewMetrics = new FilterMetrics();
+    private final FilterMetrics mRefineMetrics = new FilterMetrics();
+    private int[] mDrawingPixels;
+    private int[] mResultPixels;
+    // union of rects of the current stroke
+    private int mStrokeLeft, mStrokeTop, mStrokeRight, mStrokeBottom;
     private FilterScript.FilterType[] FILTER_TYPES = FilterScript.FilterType.values();
     private FilterScript.FilterType mCurrentFilter = FILTER_TYPES[0];
 
@@ -66,8 +100,18 @@ public class MainActivity extends Activity {
                 float y = event.getY();
                 switch (action) {
                 case MotionEvent.ACTION_DOWN:
+                    // the last stroke must be in resultBitmap before it becomes the blending layer.
+                    endStroke();
                     drawingBitmap.eraseColor(0);
-                    mFilterScript.setBlendingBitmap(resultBitmap);
+                    if (mProgressive != null) {
+                        // the last stroke was refined to full resolution by endStroke.
+                        mProgressive.setBlendingPixels(mResultPixels);
+                        Arrays.fill(mDrawingPixels, 0);
+                        mStrokeLeft = mStrokeTop = Integer.MAX_VALUE;
+                        mStrokeRight = mStrokeBottom = Integer.MIN_VALUE;
+                    } else {
+                        mFilterScript.setBlendingBitmap(resultBitmap);
+                    }
                     path.reset();
                     path.moveTo(x, y);
                     prevX1 = x;
@@ -90,7 +134,12 @@ public class MainActivity extends Activity {
                     drawingCanvas.drawColor(0, PorterDuff.Mode.CLEAR);
                     drawingCanvas.drawPath(path, drawingPaint);
                     drawingCanvas.restore();
-                    applyFilter(mCurrentFilter, left, top, right, bottom);
+                    mHistory.touch(left, top, right, bottom);
+                    if (mProgressive != null) {
+                        previewStroke(left, top, right, bottom, action == MotionEvent.ACTION_UP);
+                    } else {
+                        applyFilter(mCurrentFilter, left, top, right, bottom);
+                    }
                     prevX2 = endX;
                     prevY2 = endY;
                     prevX1 = x;
@@ -164,14 +213,218 @@ public class MainActivity extends Activity {
         drawingPaint.setMaskFilter(new BlurMaskFilter(blurSize, BlurMaskFilter.Blur.NORMAL));
 
         mFilterScript = new FilterScript(this, srcBitmap);
+        mCompositor = new TileCompositor(srcBitmap.getWidth(), srcBitmap.getHeight());
 
         mRedSeekBar.setProgress(mRedSeekBar.getMax());
 
         iv.setImageBitmap(resultBitmap);
+        mHistory = new TileHistory(new TileHistory.Pixels() {
+            @Override
+            public void getPixels(int[] pixels, int offset, int stride, int x, int y, int width, int height) {
+                resultBitmap.getPixels(pixels, offset, stride, x, y, width, height);
+            }
+
+            @Override
+            public void setPixels(int[] pixels, int offset, int stride, int x, int y, int width, int height) {
+                resultBitmap.setPixels(pixels, offset, stride, x, y, width, height);
+            }
+        }, resultBitmap.getWidth(), resultBitmap.getHeight());
 
         mFilterScript.testEquation();
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // their threads would keep this activity and its bitmaps, e.g. over a rotation.
+        mHistory.release();
+        if (mProgressive != null) {
+            mProgressive.release();
+            mProgressive = null;
+        }
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        menu.add(Menu.NONE, MENU_BENCHMARK, Menu.NONE, "Benchmark");
+        menu.add(Menu.NONE, MENU_PROGRESSIVE, Menu.NONE, "Progressive").setCheckable(true);
+        menu.add(Menu.NONE, MENU_UNDO, Menu.NONE, "Undo");
+        menu.add(Menu.NONE, MENU_REDO, Menu.NONE, "Redo");
+        menu.add(Menu.NONE, MENU_METRICS, Menu.NONE, "Metrics");
+        return super.onCreateOptionsMenu(menu);
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == MENU_PROGRESSIVE) {
+            item.setChecked(!item.isChecked());
+            setProgressive(item.isChecked());
+            return true;
+        }
+        if (item.getItemId() == MENU_UNDO || item.getItemId() == MENU_REDO) {
+            undoStroke(item.getItemId() == MENU_UNDO);
+            return true;
+        }
+        if (item.getItemId() == MENU_METRICS) {
+            // text to read in logcat, json to collect from devices and builds.
+            logMetrics("renderscript", mFilterScript.getMetrics());
+            logMetrics("progressive preview", mPreviewMetrics);
+            logMetrics("progressive refine", mRefineMetrics);
+            return true;
+        }
+        if (item.getItemId() != MENU_BENCHMARK) {
+            return super.onOptionsItemSelected(item);
+        }
+        new Thread("ColorBenchmark") {
+            @Override
+            public void run() {
+                ColorBenchmark colorBenchmark = new ColorBenchmark(getSamplePixels(), Color.rgb(255, 128, 0));
+                colorBenchmark.run();
+                colorBenchmark.runPrecision();
+                if (!colorBenchmark.testBulkAllocation()) {
+                    android.util.Log.e("ColorBenchmark", "bulk colorReplace allocates per pixel, see allocations above");
+                }
+
+                int w = srcBitmap.getWidth();
+                int h = srcBitmap.getHeight();
+                int[] pixels = new int[w * h];
+                srcBitmap.getPixels(pixels, 0, w, 0, 0, w, h);
+                for (NoiseBenchmark.Result r : new NoiseBenchmark(new CpuFilterScript(pixels, w, h)).run()) {
+                    android.util.Log.i("NoiseBenchmark", r.toString());
+                }
+            }
+        }.start();
+        return true;
+    }
+
+    private static void logMetrics(String engine, FilterMetrics metrics) {
+        android.util.Log.i("FilterMetrics", engine + "\n" + metrics.toText());
+        android.util.Log.i("FilterMetrics", "{\"engine\":\"" + engine + "\",\"metrics\":" + metrics.toJson() + "}");
+    }
+
+    // pixels of all sample images, so that the benchmark sees real color distribution.
+    private int[] getSamplePixels() {
+        int[] sampleIds = new int[] { R.drawable.sample_1, R.drawable.sample_2, R.drawable.sample_3,
+                R.drawable.sample_4 };
+        Bitmap[] samples = new Bitmap[sampleIds.length];
+        int size = 0;
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        for (int i = 0; i < sampleIds.length; i++) {
+            samples[i] = BitmapFactory.decodeResource(getResources(), sampleIds[i], options);
+            size += samples[i].getWidth() * samples[i].getHeight();
+        }
+        int[] pixels = new int[size];
+        int offset = 0;
+        for (Bitmap sample : samples) {
+            int w = sample.getWidth();
+            int h = sample.getHeight();
+            sample.getPixels(pixels, offset, w, 0, 0, w, h);
+            offset += w * h;
+            sample.recycle();
+        }
+        return pixels;
+    }
+
+    private void setProgressive(boolean enabled) {
+        // the last stroke at full resolution in resultBitmap, before the renderer goes.
+        endStroke();
+        if (mProgressive != null) {
+            mProgressive.release();
+            mProgressive = null;
+            // strokes of the cpu engine are only in resultBitmap, and applyDirty copies the whole out allocation.
+            mFilterScript.setOutputBitmap(resultBitmap);
+        }
+        if (!enabled) {
+            return;
+        }
+        int w = srcBitmap.getWidth();
+        int h = srcBitmap.getHeight();
+        int[] src = new int[w * h];
+        srcBitmap.getPixels(src, 0, w, 0, 0, w, h);
+        mResultPixels = new int[w * h];
+        resultBitmap.getPixels(mResultPixels, 0, w, 0, 0, w, h);
+        mDrawingPixels = new int[w * h];
+        CpuFilterScript full = new CpuFilterScript(src, w, h);
+        full.setMetrics(mPreviewMetrics);
+        mProgressive = new ProgressiveRenderer(full);
+        mProgressive.setRefineMetrics(mRefineMetrics);
+        mProgressive.setBlendingPixels(mResultPixels);
+    }
+
+    // Puts the last stroke into resultBitmap and ends it in the history.
+    private void endStroke() {
+        flushFrame();
+        if (mProgressive != null) {
+            // rows the refine hasn't reached would stay as preview, and be recorded so in the history.
+            mProgressive.finishRefine();
+            if (mStrokeLeft < mStrokeRight) {
+                int w = resultBitmap.getWidth();
+                resultBitmap.setPixels(mResultPixels, mStrokeTop * w + mStrokeLeft, w, mStrokeLeft, mStrokeTop,
+                        mStrokeRight - mStrokeLeft, mStrokeBottom - mStrokeTop);
+                mStrokeLeft = mStrokeTop = Integer.MAX_VALUE;
+                mStrokeRight = mStrokeBottom = Integer.MIN_VALUE;
+            }
+        }
+        mHistory.endStroke();
+    }
+
+    private void undoStroke(boolean undo) {
+        endStroke();
+        TileHistory.RectCallback callback = null;
+        if (mProgressive != null) {
+            // the next stroke blends over mResultPixels, so it follows resultBitmap.
+            final int w = resultBitmap.getWidth();
+            callback = new TileHistory.RectCallback() {
+                @Override
+                public void onRect(int left, int top, int right, int bottom) {
+                    resultBitmap.getPixels(mResultPixels, top * w + left, w, left, top, right - left, bottom - top);
+                }
+            };
+        }
+        boolean changed = undo ? mHistory.undo(callback) : mHistory.redo(callback);
+        if (changed && mProgressive == null) {
+            // or the next applyDirty would copy the stroke back from the out allocation.
+            mFilterScript.setOutputBitmap(resultBitmap);
+        }
+        iv.invalidate();
+    }
+
+    private void previewStroke(int left, int top, int right, int bottom, boolean end) {
+        final int w = resultBitmap.getWidth();
+        int h = resultBitmap.getHeight();
+        left = Math.max(left, 0);
+        top = Math.max(top, 0);
+        right = Math.min(right, w);
+        bottom = Math.min(bottom, h);
+        if (left < right && top < bottom) {
+            drawingBitmap.getPixels(mDrawingPixels, top * w + left, w, left, top, right - left, bottom - top);
+            int level = ProgressiveRenderer.chooseLevel((float) iv.getWidth() / w);
+            mProgressive.preview(mCurrentFilter, mDrawingPixels, mResultPixels, left, top, right, bottom, level);
+            resultBitmap.setPixels(mResultPixels, top * w + left, w, left, top, right - left, bottom - top);
+            iv.invalidate();
+            mStrokeLeft = Math.min(mStrokeLeft, left);
+            mStrokeTop = Math.min(mStrokeTop, top);
+            mStrokeRight = Math.max(mStrokeRight, right);
+            mStrokeBottom = Math.max(mStrokeBottom, bottom);
+        }
+        if (end && mStrokeLeft < mStrokeRight) {
+            mProgressive.refine(mCurrentFilter, mDrawingPixels, mResultPixels, mStrokeLeft, mStrokeTop, mStrokeRight,
+                    mStrokeBottom, new ProgressiveRenderer.RefineListener() {
+                        @Override
+                        public void onRefined(final int l, final int t, final int r, final int b) {
+                            iv.post(new Runnable() {
+                                @Override
+                                public void run() {
+                                    resultBitmap.setPixels(mResultPixels, t * w + l, w, l, t, r - l, b - t);
+                                    iv.invalidate();
+                                }
+                            });
+                        }
+                    });
+        }
+    }
+
     private void applyFilter(FilterType type) {
         mFilterScript.setDrawingBitmap(drawingBitmap);
         mFilterScript.apply(type, resultBitmap);
@@ -179,9 +432,29 @@ public class MainActivity extends Activity {
     }
 
     private void applyFilter(FilterType type, int left, int top, int right, int bottom) {
+        mCompositor.invalidate(left, top, right, bottom);
+        if (!mFrameScheduled) {
+            mFrameScheduled = true;
+            iv.post(mFrameRunnable);
+        }
+    }
+
+    private final Runnable mFrameRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flushFrame();
+        }
+    };
+
+    private void flushFrame() {
+        if (!mFrameScheduled) {
+            return;
+        }
+        mFrameScheduled = false;
+        iv.removeCallbacks(mFrameRunnable);
         mFilterScript.setDrawingBitmap(drawingBitmap);
-        mFilterScript.applyRect(type, resultBitmap, left, top, right, bottom);
-        iv.invalidate(left, top, right, bottom);
+        mFilterScript.applyDirty(mCurrentFilter, resultBitmap, mCompositor);
+        iv.invalidate();
     }
 
     private static Bitmap createLayerBitmap(Bitmap srcBitmap) {
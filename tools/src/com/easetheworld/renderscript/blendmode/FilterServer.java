@@ -0,0 +1,163 @@
+package com.easetheworld.renderscript.blendmode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+// FilterService over http of the jdk, on localhost.
+// - POST /filter?preset=SEPIA,BLUR2:80ffffff with a jpeg or png body : the result as png.
+//   400 for a bad preset or image, 413 for a body over MAX_BODY_BYTES, 503 when the service sheds load.
+// - GET /stats : FilterService.Stats as text.
+// Decode and encode run on the threads of the server, filtering on the TileScheduler of the service.
+// e.g. curl --data-binary @res/drawable-nodpi/sample_1.jpg "localhost:8080/filter?preset=SEPIA" -o out.png
+public class FilterServer {
+    public static final int MAX_BODY_BYTES = 32 << 20;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final FilterService service;
+    private final ImageCodec codec;
+
+    public FilterServer(int port, FilterService service, ImageCodec codec, int threads) throws IOException {
+        this.service = service;
+        this.codec = codec;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port), 0);
+        executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        server.setExecutor(executor);
+        server.createContext("/filter", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    handleFilter(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.createContext("/stats", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    send(exchange, 200, "text/plain", (FilterServer.this.service.getStats() + "\n").getBytes("UTF-8"));
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    // the service is not shut down by this.
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    private void handleFilter(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            exchange.getResponseHeaders().set("Allow", "POST");
+            sendText(exchange, 405, "POST an image");
+            return;
+        }
+        String preset = getParameter(exchange.getRequestURI().getRawQuery(), "preset");
+        if (preset == null) {
+            sendText(exchange, 400, "no preset");
+            return;
+        }
+        byte[] body = readBody(exchange.getRequestBody());
+        if (body == null) {
+            sendText(exchange, 413, "over " + MAX_BODY_BYTES + " bytes");
+            return;
+        }
+        ImageCodec.Image result;
+        try {
+            result = service.filter(body, preset);
+        } catch (IllegalArgumentException e) {
+            sendText(exchange, 400, e.getMessage());
+            return;
+        } catch (IOException e) {
+            sendText(exchange, 400, "bad image : " + e.getMessage());
+            return;
+        } catch (RejectedExecutionException e) {
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            sendText(exchange, 503, e.getMessage());
+            return;
+        } catch (RuntimeException e) {
+            sendText(exchange, 500, e.toString());
+            return;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.encode(result, out);
+        send(exchange, 200, "image/" + codec.getExtension(), out.toByteArray());
+    }
+
+    // null if over MAX_BODY_BYTES
+    private static byte[] readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[64 * 1024];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            if (out.size() + n > MAX_BODY_BYTES) {
+                return null;
+            }
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static String getParameter(String query, String name) throws UnsupportedEncodingException {
+        if (query == null) {
+            return null;
+        }
+        for (String pair : query.split("&")) {
+            int equal = pair.indexOf('=');
+            if (equal > 0 && URLDecoder.decode(pair.substring(0, equal), "UTF-8").equals(name)) {
+                return URLDecoder.decode(pair.substring(equal + 1), "UTF-8");
+            }
+        }
+        return null;
+    }
+
+    private static void sendText(HttpExchange exchange, int code, String text) throws IOException {
+        send(exchange, code, "text/plain", (text + "\n").getBytes("UTF-8"));
+    }
+
+    private static void send(HttpExchange exchange, int code, String type, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", type);
+        exchange.sendResponseHeaders(code, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+
+    // usage : FilterServer [port] [queue budget ms]
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        long budget = args.length > 1 ? Long.parseLong(args[1]) : 200;
+        int cores = Runtime.getRuntime().availableProcessors();
+        FilterService service = new FilterService(new ImageIOCodec(), TileScheduler.getDefault(), 256L << 20, budget,
+                64, 4 * cores, 2);
+        FilterServer server = new FilterServer(port, service, new ImageIOCodec(), 2 * cores);
+        server.start();
+        System.out.println("listening on 127.0.0.1:" + server.getPort());
+    }
+}
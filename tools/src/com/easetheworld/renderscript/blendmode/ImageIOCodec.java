@@ -0,0 +1,60 @@
+package com.easetheworld.renderscript.blendmode;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+
+import javax.imageio.ImageIO;
+
+// jpeg and png through javax.imageio, for BatchRunner and FilterServer on a desktop jvm.
+// Not in src/, since android has no javax.imageio.
+public class ImageIOCodec implements ImageCodec {
+    private final String format;
+
+    // output format, "png" or "jpg"
+    public ImageIOCodec(String format) {
+        this.format = format;
+    }
+
+    // png, which keeps alpha and is lossless
+    public ImageIOCodec() {
+        this("png");
+    }
+
+    @Override
+    public boolean accepts(File file) {
+        String name = file.getName().toLowerCase(Locale.US);
+        return name.endsWith(".jpg") || name.endsWith(".jpeg") || name.endsWith(".png");
+    }
+
+    @Override
+    public Image decode(InputStream in) throws IOException {
+        BufferedImage image = ImageIO.read(in);
+        if (image == null) {
+            throw new IOException("not a jpeg or png");
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        return new Image(width, height, pixels);
+    }
+
+    @Override
+    public void encode(Image image, OutputStream stream) throws IOException {
+        boolean alpha = !format.equals("jpg");
+        BufferedImage out = new BufferedImage(image.width, image.height,
+                alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        out.setRGB(0, 0, image.width, image.height, image.pixels, 0, image.width);
+        if (!ImageIO.write(out, format, stream)) {
+            throw new IOException("no writer for " + format);
+        }
+    }
+
+    @Override
+    public String getExtension() {
+        return format;
+    }
+}